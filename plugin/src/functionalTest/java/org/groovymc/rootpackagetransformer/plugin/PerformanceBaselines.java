@@ -0,0 +1,88 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timings recorded by the performance scenarios, checked against the baselines stored with the tests. A timing fails its
+ * scenario if it exceeds its baseline by more than the tolerance, along with a little slack, so that short timings do
+ * not fail on noise alone. Timings without a baseline are only recorded.
+ */
+final class PerformanceBaselines {
+    private static final String PREFIX = "org.groovymc.rootpackagetransformer.performance.";
+    private static final String RESOURCE = "performance-baselines.properties";
+    private static final long SLACK_MILLIS = 500;
+
+    private final Map<String, Long> baselines;
+    private final Map<String, Long> results = new TreeMap<>();
+    private final double tolerance;
+    private final boolean update;
+
+    private PerformanceBaselines(Map<String, Long> baselines, double tolerance, boolean update) {
+        this.baselines = baselines;
+        this.tolerance = tolerance;
+        this.update = update;
+    }
+
+    static PerformanceBaselines load() {
+        Map<String, Long> baselines = new TreeMap<>();
+        try (InputStream is = PerformanceBaselines.class.getResourceAsStream("/" + RESOURCE)) {
+            if (is != null) {
+                var properties = new Properties();
+                properties.load(is);
+                for (String key : properties.stringPropertyNames()) {
+                    baselines.put(key, Long.parseLong(properties.getProperty(key).trim()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        double tolerance = Double.parseDouble(System.getProperty(PREFIX + "tolerance", "1.5"));
+        boolean update = Boolean.getBoolean(PREFIX + "updateBaselines");
+        return new PerformanceBaselines(baselines, tolerance, update);
+    }
+
+    void check(String key, long millis) {
+        results.put(key, millis);
+        Long baseline = baselines.get(key);
+        if (update || baseline == null) {
+            return;
+        }
+        long limit = (long) (baseline * tolerance) + SLACK_MILLIS;
+        assertTrue(millis <= limit, key + " took " + millis + "ms, against a baseline of " + baseline + "ms (limit " + limit + "ms)");
+    }
+
+    /**
+     * Writes the timings of this run to the results file, and when updating, over the stored baselines too.
+     */
+    void save() throws IOException {
+        String resultsFile = System.getProperty(PREFIX + "resultsFile");
+        if (resultsFile != null) {
+            write(Path.of(resultsFile), results);
+        }
+        String baselinesFile = System.getProperty(PREFIX + "baselinesFile");
+        if (update && baselinesFile != null) {
+            write(Path.of(baselinesFile), results);
+        }
+    }
+
+    private static void write(Path file, Map<String, Long> values) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Milliseconds taken by each performance scenario; regenerate with -PupdatePerformanceBaselines");
+        for (var entry : values.entrySet()) {
+            lines.add(entry.getKey() + "=" + entry.getValue());
+        }
+        Files.createDirectories(file.getParent());
+        Files.write(file, lines);
+    }
+}
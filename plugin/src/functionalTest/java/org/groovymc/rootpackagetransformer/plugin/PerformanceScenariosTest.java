@@ -0,0 +1,221 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the plugin end to end on a {@link SyntheticBuild}, timing a clean build, an up-to-date build, a build after
+ * editing a few classes, a build from the build cache after a clean, configuration on its own, a build which needs none
+ * of the plugin's tasks, and an up-to-date build from the configuration cache. Scenarios build on the state the one
+ * before left behind, so run in order.
+ * <p>
+ * Not part of {@code check}: run with {@code ./gradlew :plugin:performanceTest}, passing
+ * {@code -PupdatePerformanceBaselines} to store the timings of the current machine as the new baselines.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PerformanceScenariosTest {
+    private static final String PREFIX = "org.groovymc.rootpackagetransformer.performance.";
+    private static final Pattern DURATION = Pattern.compile("\"durationMillis\": (\\d+)");
+    // Timings which vary most from run to run are taken as the best of a few runs
+    private static final int REPEATS = 3;
+
+    private SyntheticBuild build;
+    private PerformanceBaselines baselines;
+
+    @BeforeAll
+    void generate() throws IOException {
+        Path workDir = Path.of(System.getProperty(PREFIX + "workDir", "build/performance"));
+        build = SyntheticBuild.generate(workDir.resolve("synthetic"),
+                Integer.getInteger(PREFIX + "projects", 4),
+                Integer.getInteger(PREFIX + "classes", 1500),
+                Integer.getInteger(PREFIX + "annotatedEvery", 15));
+        baselines = PerformanceBaselines.load();
+        // Starts the daemon, so that its startup is not counted against the first scenario
+        run("help");
+    }
+
+    @AfterAll
+    void save() throws IOException {
+        baselines.save();
+    }
+
+    private GradleRunner runner(String... arguments) {
+        List<String> args = new ArrayList<>(List.of(arguments));
+        args.add("--build-cache");
+        args.add("--parallel");
+        args.add("--stacktrace");
+        return GradleRunner.create()
+                .withProjectDir(build.root().toFile())
+                .withPluginClasspath()
+                .withArguments(args);
+    }
+
+    private BuildResult run(String... arguments) {
+        return runner(arguments).build();
+    }
+
+    private record Timed(BuildResult result, long millis) {}
+
+    private Timed timed(String... arguments) {
+        long start = System.nanoTime();
+        BuildResult result = run(arguments);
+        return new Timed(result, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static String taskPath(int project, String task) {
+        return ":" + SyntheticBuild.projectName(project) + ":" + task;
+    }
+
+    private void assertOutcome(BuildResult result, String task, TaskOutcome expected) {
+        for (int project = 0; project < build.projects(); project++) {
+            assertOutcome(result, project, task, expected);
+        }
+    }
+
+    private static void assertOutcome(BuildResult result, int project, String task, TaskOutcome expected) {
+        BuildTask buildTask = result.task(taskPath(project, task));
+        assertNotNull(buildTask, taskPath(project, task) + " did not run");
+        assertEquals(expected, buildTask.getOutcome(), taskPath(project, task));
+    }
+
+    /**
+     * {@return the time the given task took in every project where it ran, from the reports it writes}
+     */
+    private long reportedMillis(BuildResult result, String task) throws IOException {
+        long total = 0;
+        for (int project = 0; project < build.projects(); project++) {
+            BuildTask buildTask = result.task(taskPath(project, task));
+            if (buildTask == null || buildTask.getOutcome() != TaskOutcome.SUCCESS) {
+                continue;
+            }
+            Path report = build.root().resolve(SyntheticBuild.projectName(project)).resolve("build/reports/rootPackageTransformer/" + task + ".json");
+            Matcher matcher = DURATION.matcher(Files.readString(report));
+            assertTrue(matcher.find(), "No duration in " + report);
+            total += Long.parseLong(matcher.group(1));
+        }
+        return total;
+    }
+
+    @Test
+    @Order(1)
+    void cleanBuild() throws IOException {
+        Timed timed = timed("assemble");
+        assertOutcome(timed.result(), "rootPackageTransformList", TaskOutcome.SUCCESS);
+        assertOutcome(timed.result(), "rootPackageTransform", TaskOutcome.SUCCESS);
+        assertOutcome(timed.result(), "rootPackageTransformSources", TaskOutcome.SUCCESS);
+        for (int project = 0; project < build.projects(); project++) {
+            Path list = build.root().resolve(SyntheticBuild.projectName(project)).resolve("build/transformed/rootPackageTransformList/org.groovymc.rootpackagetransformer.transformedclasses");
+            assertEquals(build.annotatedCount() / build.projects(), Files.readAllLines(list).size(), list.toString());
+        }
+        baselines.check("cleanBuild.wallMillis", timed.millis());
+        baselines.check("cleanBuild.transformListMillis", reportedMillis(timed.result(), "rootPackageTransformList"));
+        baselines.check("cleanBuild.transformMillis", reportedMillis(timed.result(), "rootPackageTransform"));
+    }
+
+    @Test
+    @Order(2)
+    void upToDate() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            Timed timed = timed("assemble");
+            assertOutcome(timed.result(), "rootPackageTransformList", TaskOutcome.UP_TO_DATE);
+            assertOutcome(timed.result(), "rootPackageTransform", TaskOutcome.UP_TO_DATE);
+            assertOutcome(timed.result(), "rootPackageTransformSources", TaskOutcome.UP_TO_DATE);
+            assertOutcome(timed.result(), "rootPackageJar", TaskOutcome.UP_TO_DATE);
+            best = Math.min(best, timed.millis());
+        }
+        baselines.check("upToDate.wallMillis", best);
+    }
+
+    @Test
+    @Order(3)
+    void incrementalChange() throws IOException {
+        // One marked and one unmarked class, in the first project only
+        build.touch(0, 0, 1);
+        build.touch(0, 1, 1);
+        Timed timed = timed("assemble");
+        assertOutcome(timed.result(), 0, "rootPackageTransform", TaskOutcome.SUCCESS);
+        for (int project = 1; project < build.projects(); project++) {
+            assertOutcome(timed.result(), project, "rootPackageTransform", TaskOutcome.UP_TO_DATE);
+        }
+        baselines.check("incrementalChange.wallMillis", timed.millis());
+        baselines.check("incrementalChange.transformListMillis", reportedMillis(timed.result(), "rootPackageTransformList"));
+        baselines.check("incrementalChange.transformMillis", reportedMillis(timed.result(), "rootPackageTransform"));
+    }
+
+    @Test
+    @Order(4)
+    void buildCache() {
+        run("clean");
+        Timed timed = timed("assemble");
+        assertOutcome(timed.result(), "rootPackageTransformList", TaskOutcome.FROM_CACHE);
+        assertOutcome(timed.result(), "rootPackageTransform", TaskOutcome.FROM_CACHE);
+        assertOutcome(timed.result(), "rootPackageTransformSources", TaskOutcome.FROM_CACHE);
+        baselines.check("buildCache.wallMillis", timed.millis());
+    }
+
+    @Test
+    @Order(5)
+    void configuration() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            // Configures every task assemble needs, without running any of them
+            best = Math.min(best, timed("assemble", "--dry-run").millis());
+        }
+        baselines.check("configuration.wallMillis", best);
+    }
+
+    @Test
+    @Order(6)
+    void unrelatedTask() {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            Timed timed = timed("compileJava");
+            assertFalse(timed.result().getOutput().contains("Configured task"), "Configured tasks of the plugin:\n" + timed.result().getOutput());
+            best = Math.min(best, timed.millis());
+        }
+        baselines.check("unrelatedTask.wallMillis", best);
+    }
+
+    @Test
+    @Order(7)
+    void configurationCache() {
+        // Fails on any problem storing the entry
+        BuildResult stored = run("assemble", "--configuration-cache");
+        assertTrue(stored.getOutput().contains("Configuration cache entry stored"), stored.getOutput());
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < REPEATS; i++) {
+            Timed timed = timed("assemble", "--configuration-cache");
+            assertTrue(timed.result().getOutput().contains("Reusing configuration cache"), timed.result().getOutput());
+            assertOutcome(timed.result(), "rootPackageTransformList", TaskOutcome.UP_TO_DATE);
+            assertOutcome(timed.result(), "rootPackageTransform", TaskOutcome.UP_TO_DATE);
+            assertOutcome(timed.result(), "rootPackageJar", TaskOutcome.UP_TO_DATE);
+            best = Math.min(best, timed.millis());
+        }
+        baselines.check("configurationCache.wallMillis", best);
+    }
+}
@@ -0,0 +1,170 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.groovymc.rootpackagetransformer.RootPackage;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/**
+ * A multi-project build applying the plugin to every project, with transformed sources, generated so that every run
+ * builds the same thing. Each class refers to the classes before it and to the nearest class marked with
+ * {@link RootPackage}, by type and in a string, so that transforming has work to do in most classes.
+ */
+final class SyntheticBuild {
+    private static final int PACKAGES = 40;
+
+    private final Path root;
+    private final int projects;
+    private final int classes;
+    private final int annotatedEvery;
+
+    private SyntheticBuild(Path root, int projects, int classes, int annotatedEvery) {
+        this.root = root;
+        this.projects = projects;
+        this.classes = classes;
+        this.annotatedEvery = annotatedEvery;
+    }
+
+    /**
+     * @param classes        how many classes each project has
+     * @param annotatedEvery one class in how many is marked with {@link RootPackage}
+     */
+    static SyntheticBuild generate(Path root, int projects, int classes, int annotatedEvery) throws IOException {
+        deleteRecursively(root);
+        var build = new SyntheticBuild(root, projects, classes, annotatedEvery);
+        build.write();
+        return build;
+    }
+
+    Path root() {
+        return root;
+    }
+
+    int projects() {
+        return projects;
+    }
+
+    static String projectName(int project) {
+        return "project" + project;
+    }
+
+    int annotatedCount() {
+        return projects * ((classes + annotatedEvery - 1) / annotatedEvery);
+    }
+
+    private void write() throws IOException {
+        Files.createDirectories(root);
+        StringBuilder settings = new StringBuilder("rootProject.name = 'synthetic'\n\n");
+        for (int project = 0; project < projects; project++) {
+            settings.append("include '").append(projectName(project)).append("'\n");
+        }
+        settings.append("\nbuildCache {\n    local {\n        directory = file('build-cache')\n    }\n}\n");
+        Files.writeString(root.resolve("settings.gradle"), settings);
+        // Lets scenarios tell which of the plugin's tasks a build configured
+        Files.writeString(root.resolve("build.gradle"), """
+                subprojects {
+                    tasks.configureEach { task ->
+                        if (task.name.startsWith('rootPackage')) {
+                            logger.lifecycle("Configured task ${task.path}")
+                        }
+                    }
+                }
+                """);
+        Files.writeString(root.resolve("gradle.properties"), "org.gradle.jvmargs=-Xmx1g\n");
+
+        String annotationClasses = annotationLocation().toString().replace("\\", "\\\\").replace("'", "\\'");
+        for (int project = 0; project < projects; project++) {
+            Path projectDir = root.resolve(projectName(project));
+            Files.createDirectories(projectDir);
+            Files.writeString(projectDir.resolve("build.gradle"), """
+                    plugins {
+                        id 'java'
+                        id 'org.groovymc.rootpackagetransformer'
+                    }
+
+                    group = 'org.example'
+                    version = '1.0'
+
+                    java {
+                        withSourcesJar()
+                    }
+
+                    dependencies {
+                        compileOnly files('%s')
+                    }
+
+                    rootPackageTransformer.forSourceSet(sourceSets.main, 'org.example:%s-jpms:1.0') {
+                        transformSources = true
+                    }
+                    """.formatted(annotationClasses, projectName(project)));
+            for (int index = 0; index < classes; index++) {
+                writeClass(project, index, 0);
+            }
+        }
+    }
+
+    private static Path annotationLocation() {
+        try {
+            return Path.of(RootPackage.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String packageName(int project, int index) {
+        return "com.example.p" + project + ".pkg" + (index % PACKAGES);
+    }
+
+    private static String qualifiedName(int project, int index) {
+        return packageName(project, index) + ".Generated" + index;
+    }
+
+    private boolean annotated(int index) {
+        return index % annotatedEvery == 0;
+    }
+
+    /**
+     * Changes the body of a class without changing what it refers to, as an edit between builds would.
+     */
+    void touch(int project, int index, int revision) throws IOException {
+        writeClass(project, index, revision);
+    }
+
+    private void writeClass(int project, int index, int revision) throws IOException {
+        String name = "Generated" + index;
+        String marked = qualifiedName(project, index - index % annotatedEvery);
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(packageName(project, index)).append(";\n\n");
+        if (annotated(index)) {
+            source.append("@").append(RootPackage.class.getName()).append('\n');
+        }
+        source.append("public class ").append(name).append(" {\n");
+        source.append("    public static final String MARKED = \"").append(marked).append("\";\n");
+        for (int i = 1; i <= 3 && index - i >= 0; i++) {
+            source.append("    private ").append(qualifiedName(project, index - i)).append(" previous").append(i).append(";\n");
+        }
+        if (!annotated(index)) {
+            source.append("    private ").append(marked).append(" marked;\n");
+        }
+        source.append("\n    public String describe(int value) {\n");
+        source.append("        return \"").append(name).append(" revision ").append(revision).append(" \" + value + MARKED;\n");
+        source.append("    }\n}\n");
+        Path file = root.resolve(projectName(project)).resolve("src/main/java").resolve(packageName(project, index).replace('.', '/')).resolve(name + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source);
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (var stream = Files.walk(directory)) {
+            for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
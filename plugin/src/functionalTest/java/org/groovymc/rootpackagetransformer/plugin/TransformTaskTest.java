@@ -0,0 +1,166 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.groovymc.rootpackagetransformer.RootPackage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link TransformTask} end to end on small builds, through full and incremental runs.
+ */
+class TransformTaskTest {
+    @TempDir
+    Path projectDir;
+
+    private void writeBuild(String extra) throws IOException {
+        Files.writeString(projectDir.resolve("settings.gradle"), "rootProject.name = 'example'\n");
+        Files.writeString(projectDir.resolve("build.gradle"), """
+                plugins {
+                    id 'java'
+                    id 'org.groovymc.rootpackagetransformer'
+                }
+
+                dependencies {
+                    compileOnly files('%s')
+                }
+
+                rootPackageTransformer.forSourceSet(sourceSets.main, 'org.example:example-jpms:1.0')
+                """.formatted(annotationLocation()) + extra);
+    }
+
+    private void writeClass(String name, String source) throws IOException {
+        Path file = projectDir.resolve("src/main/java/" + name + ".java");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, source);
+    }
+
+    private GradleRunner runner(String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(projectDir.toFile())
+                .withPluginClasspath()
+                .withArguments(arguments);
+    }
+
+    private BuildResult run(String... arguments) {
+        return runner(arguments).build();
+    }
+
+    private Path output(String task, String className) {
+        return projectDir.resolve("build/transformed/" + task + "/" + className + ".class");
+    }
+
+    private String report(String task) throws IOException {
+        return Files.readString(projectDir.resolve("build/reports/rootPackageTransformer/" + task + ".json"));
+    }
+
+    private long counter(String task, String counter) throws IOException {
+        Matcher matcher = Pattern.compile("\"" + counter + "\": (\\d+)").matcher(report(task));
+        assertTrue(matcher.find(), "no " + counter + " in the report of " + task);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static String annotationLocation() {
+        try {
+            return Path.of(RootPackage.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString()
+                    .replace("\\", "\\\\").replace("'", "\\'");
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean contains(Path file, String text) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains(text);
+    }
+
+    /**
+     * Classes given as single files, or from within a directory other than the root of their classes directory, sit at
+     * paths which do not match their names; the output is named after the classes all the same.
+     */
+    @Test
+    void classesKeepTheirNamesWhateverTheirInputPaths() throws IOException {
+        writeBuild("""
+
+                tasks.register('transformParts', org.groovymc.rootpackagetransformer.plugin.TransformTask) {
+                    dependsOn 'compileJava'
+                    inputFiles.from(layout.buildDirectory.dir('classes/java/main/x/y/q'))
+                    inputFiles.from(layout.buildDirectory.file('classes/java/main/x/y/Moved.class'))
+                    inputFiles.from(layout.buildDirectory.file('classes/java/main/x/y/User.class'))
+                    listFile.set(tasks.named('rootPackageTransformList').flatMap { it.listFile })
+                    transformerService.set(gradle.sharedServices.registerIfAbsent('rootPackageTransformers', org.groovymc.rootpackagetransformer.plugin.TransformerService) {})
+                }
+                """);
+        writeClass("x/y/Moved", "package x.y; @" + RootPackage.class.getName() + " public class Moved {}");
+        writeClass("x/y/User", "package x.y; public class User { Moved moved; }");
+        writeClass("x/y/q/Plain", "package x.y.q; public class Plain {}");
+        run("transformParts");
+        assertTrue(Files.isRegularFile(output("transformParts", "Moved")), "marked class not moved");
+        assertTrue(Files.isRegularFile(output("transformParts", "x/y/User")), "user of marked class misplaced");
+        assertTrue(Files.isRegularFile(output("transformParts", "x/y/q/Plain")), "unrelated class misplaced");
+        assertFalse(Files.exists(output("transformParts", "Plain")), "unrelated class named after its path");
+        assertFalse(Files.exists(output("transformParts", "User")), "user of marked class named after its path");
+
+        writeClass("x/y/q/Plain", "package x.y.q; public class Plain { void changedMethod() {} }");
+        run("transformParts");
+        assertTrue(report("transformParts").contains("\"incremental\": true"), "second run was not incremental");
+        assertTrue(contains(output("transformParts", "x/y/q/Plain"), "changedMethod"), "changed class not written again");
+        assertFalse(Files.exists(output("transformParts", "Plain")), "changed class named after its path");
+    }
+
+    /**
+     * A class newly marked is moved into the name of a class in the root package, which is not transformed again as it
+     * mentions neither; the two would otherwise be written over one another.
+     */
+    @Test
+    void movingAClassOntoAnUntouchedOneFails() throws IOException {
+        writeBuild("");
+        writeClass("x/y/Moved", "package x.y; public class Moved {}");
+        writeClass("Moved", "public class Moved {}");
+        run("rootPackageTransform");
+        assertTrue(Files.isRegularFile(output("rootPackageTransform", "x/y/Moved")), "unmarked class moved");
+        assertTrue(Files.isRegularFile(output("rootPackageTransform", "Moved")), "class in the root package not written");
+
+        writeClass("x/y/Moved", "package x.y; @" + RootPackage.class.getName() + " public class Moved {}");
+        BuildResult result = runner("rootPackageTransform").buildAndFail();
+        assertTrue(result.getOutput().contains("are transformed to class Moved"), "failed for another reason:\n" + result.getOutput());
+    }
+
+    @Test
+    void reportsWhatEachRunDid() throws IOException {
+        // Without the lists from the annotation processor, every class is scanned for the annotation
+        writeBuild("""
+
+                tasks.named('rootPackageTransformList') {
+                    processorLists.setFrom()
+                }
+                """);
+        writeClass("x/y/Moved", "package x.y; @" + RootPackage.class.getName() + " public class Moved {}");
+        writeClass("x/y/User", "package x.y; public class User { Moved moved; }");
+        writeClass("x/y/q/Plain", "package x.y.q; public class Plain {}");
+        run("rootPackageTransform");
+        assertEquals(3, counter("rootPackageTransformList", "classesScanned"));
+        assertEquals(1, counter("rootPackageTransformList", "classesRelocated"));
+        assertEquals(2, counter("rootPackageTransform", "classesRewritten"));
+        assertEquals(1, counter("rootPackageTransform", "classesPassedThrough"));
+        assertTrue(counter("rootPackageTransform", "cacheHits") + counter("rootPackageTransform", "cacheMisses") > 0, "no lookups counted");
+
+        // The transformer is kept between builds, along with every string it has already looked up
+        run("rootPackageTransform", "--rerun");
+        assertEquals(2, counter("rootPackageTransform", "classesRewritten"));
+        assertEquals(1, counter("rootPackageTransform", "classesPassedThrough"));
+        assertEquals(0, counter("rootPackageTransform", "cacheMisses"));
+        assertTrue(counter("rootPackageTransform", "cacheHits") > 0, "no lookups counted");
+    }
+}
@@ -0,0 +1,99 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+final class OutputFiles {
+    private OutputFiles() {}
+
+    /**
+     * Writes the given file unless it already has the given contents. An existing file is replaced rather than written
+     * over, as it may be a link to an entry of the {@link TransformedClassCache} made by an older version.
+     */
+    static void writeIfChanged(Path path, byte[] contents) throws IOException {
+        if (hasContents(path, contents)) {
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        if (!Files.exists(path)) {
+            Files.write(path, contents);
+            return;
+        }
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, contents);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies the source file, whose contents are given, unless the destination already has them. Copying lets the file
+     * system clone or share the data where it is able to, rather than have it written out again.
+     */
+    static void copyIfChanged(Path source, Path destination, byte[] contents) throws IOException {
+        if (hasContents(destination, contents)) {
+            return;
+        }
+        Files.createDirectories(destination.getParent());
+        // Deletes any existing file before copying, so never writes through a link to the class cache made by an older version
+        Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static boolean hasContents(Path path, byte[] contents) throws IOException {
+        return Files.isRegularFile(path) && Files.size(path) == contents.length && Arrays.equals(Files.readAllBytes(path), contents);
+    }
+
+    /**
+     * Deletes every file under the directory which is not in the given set, along with any directories left empty.
+     */
+    static void deleteAllExcept(Path directory, Set<Path> keep) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> paths;
+        try (var stream = Files.walk(directory)) {
+            paths = stream.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            if (path.equals(directory)) {
+                continue;
+            }
+            if (Files.isDirectory(path)) {
+                try (var children = Files.list(path)) {
+                    if (children.findAny().isEmpty()) {
+                        Files.delete(path);
+                    }
+                }
+            } else if (!keep.contains(path)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Deletes the given file if present, along with any of its parents below the root which are left empty.
+     */
+    static void delete(Path file, Path root) throws IOException {
+        if (!Files.deleteIfExists(file)) {
+            return;
+        }
+        Path parent = file.getParent();
+        while (parent != null && !parent.equals(root) && parent.startsWith(root)) {
+            try (var children = Files.list(parent)) {
+                if (children.findAny().isPresent()) {
+                    return;
+                }
+            }
+            Files.delete(parent);
+            parent = parent.getParent();
+        }
+    }
+}
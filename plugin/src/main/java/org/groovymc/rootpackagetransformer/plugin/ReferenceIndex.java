@@ -0,0 +1,160 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers, for each class a {@link TransformTask} has transformed, the name it was written under and the strings in
+ * its constant pool which could mention a class to move, along with the list of classes to move it was transformed
+ * with. When the list changes, only the classes which mention a class added to or removed from it need transforming
+ * again; the output of any other class would come out the same.
+ */
+final class ReferenceIndex {
+    // Bump whenever the format, or what is recorded for a class, changes
+    private static final int FORMAT = 1;
+
+    record Entry(String outputName, String[] qualifiedNames) {}
+
+    private Set<String> targets;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    ReferenceIndex(Collection<String> targets) {
+        this.targets = Set.copyOf(targets);
+    }
+
+    /**
+     * {@return the index in the given file, or {@code null} if there is none, or it cannot be read}
+     */
+    static ReferenceIndex read(Path file) {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+            List<String> targets = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                targets.add(in.readUTF());
+            }
+            var index = new ReferenceIndex(targets);
+            // Most strings are shared by many classes, so each is stored once
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String path = in.readUTF();
+                String outputName = in.readUTF();
+                String[] names = new String[in.readInt()];
+                for (int j = 0; j < names.length; j++) {
+                    names[j] = strings[in.readInt()];
+                }
+                index.entries.put(path, new Entry(outputName, names));
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            // Missing, left part written by a killed build, or otherwise unusable; the task then starts over
+            return null;
+        }
+    }
+
+    void write(Path file) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        var sorted = new TreeMap<>(entries);
+        for (Entry entry : sorted.values()) {
+            for (String name : entry.qualifiedNames()) {
+                ids.computeIfAbsent(name, k -> {
+                    strings.add(k);
+                    return strings.size() - 1;
+                });
+            }
+        }
+        Files.createDirectories(file.getParent());
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(FORMAT);
+            out.writeInt(targets.size());
+            for (String target : new TreeSet<>(targets)) {
+                out.writeUTF(target);
+            }
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                out.writeUTF(string);
+            }
+            out.writeInt(sorted.size());
+            for (var entry : sorted.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().outputName());
+                out.writeInt(entry.getValue().qualifiedNames().length);
+                for (String name : entry.getValue().qualifiedNames()) {
+                    out.writeInt(ids.get(name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that the classes in this index are now transformed with the given list.
+     */
+    void setTargets(Collection<String> targets) {
+        this.targets = Set.copyOf(targets);
+    }
+
+    /**
+     * @return the entry previously recorded for the file, if any
+     */
+    Entry put(String path, String outputName, Set<String> qualifiedNames) {
+        return entries.put(path, new Entry(outputName, qualifiedNames.toArray(String[]::new)));
+    }
+
+    Entry remove(String path) {
+        return entries.remove(path);
+    }
+
+    /**
+     * {@return the name each recorded file was written under, by its path}
+     */
+    Map<String, String> outputNames() {
+        Map<String, String> names = new HashMap<>();
+        for (var entry : entries.entrySet()) {
+            names.put(entry.getKey(), entry.getValue().outputName());
+        }
+        return names;
+    }
+
+    /**
+     * {@return the input files which mention any class that is to be moved by only one of the recorded list and the given
+     * list}
+     */
+    List<String> affectedBy(Collection<String> list) {
+        Set<String> newTargets = Set.copyOf(list);
+        Set<String> changed = new TreeSet<>(targets);
+        changed.addAll(newTargets);
+        changed.removeIf(target -> targets.contains(target) && newTargets.contains(target));
+        List<String> affected = new ArrayList<>();
+        if (changed.isEmpty()) {
+            return affected;
+        }
+        for (var entry : entries.entrySet()) {
+            if (RootPackageTransformer.mentionsAny(Arrays.asList(entry.getValue().qualifiedNames()), changed)) {
+                affected.add(entry.getKey());
+            }
+        }
+        return affected;
+    }
+}
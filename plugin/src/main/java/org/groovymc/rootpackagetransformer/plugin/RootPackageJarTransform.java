@@ -0,0 +1,50 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.groovymc.rootpackagetransformer.transform.JarTransformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Relocates the marked classes of a dependency jar to the root package, so that consumers can use root package
+ * variants of jars which were not published with one.
+ */
+@CacheableTransform
+public abstract class RootPackageJarTransform implements TransformAction<TransformParameters.None> {
+    // Gradle already transforms several artifacts at once, so each jar is handled on a single thread
+    private static final int PARALLELISM = 1;
+
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    @Override
+    public void transform(TransformOutputs outputs) {
+        File input = getInputArtifact().get().getAsFile();
+        try {
+            var transformer = JarTransformer.classesToMove(input.toPath(), PARALLELISM);
+            if (transformer.getTargetClasses().isEmpty()) {
+                outputs.file(input);
+                return;
+            }
+            String name = input.getName();
+            if (name.endsWith(".jar")) {
+                name = name.substring(0, name.length() - ".jar".length());
+            }
+            File output = outputs.file(name + "-rootpackage.jar");
+            new JarTransformer(transformer, false, PARALLELISM).transform(input.toPath(), output.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
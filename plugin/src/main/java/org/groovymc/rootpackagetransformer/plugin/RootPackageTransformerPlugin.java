@@ -3,30 +3,57 @@
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.PublishArtifact;
 import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
 import org.gradle.api.attributes.Attribute;
 import org.gradle.api.attributes.LibraryElements;
 import org.gradle.api.component.AdhocComponentWithVariants;
-import org.gradle.api.file.CopySpec;
-import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.Copy;
 import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.TaskDependency;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Jar;
+import org.gradle.api.tasks.compile.JavaCompile;
+import org.groovymc.rootpackagetransformer.RootPackage;
+import org.groovymc.rootpackagetransformer.processor.RootPackageProcessor;
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
 
 import javax.inject.Inject;
+import java.io.File;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 public abstract class RootPackageTransformerPlugin implements Plugin<Project> {
+    /**
+     * Marks whether a jar has had its marked classes moved to the root package. Resolving a configuration with this
+     * set to {@code true} relocates dependency jars through {@link RootPackageJarTransform}.
+     */
+    public static final Attribute<Boolean> ROOT_PACKAGE_ATTRIBUTE = Attribute.of("org.groovymc.rootpackagetransformer.rootpackage", Boolean.class);
+
     @Override
     public void apply(Project project) {
         project.getPluginManager().apply("java");
         project.getExtensions().create("rootPackageTransformer", Extension.class, project);
+
+        var dependencies = project.getDependencies();
+        dependencies.getAttributesSchema().attribute(ROOT_PACKAGE_ATTRIBUTE);
+        dependencies.getArtifactTypes().named(ArtifactTypeDefinition.JAR_TYPE, type ->
+            type.getAttributes().attribute(ROOT_PACKAGE_ATTRIBUTE, false)
+        );
+        dependencies.registerTransform(RootPackageJarTransform.class, spec -> {
+            spec.getFrom().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE).attribute(ROOT_PACKAGE_ATTRIBUTE, false);
+            spec.getTo().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE).attribute(ROOT_PACKAGE_ATTRIBUTE, true);
+        });
     }
 
     public static abstract class Extension {
@@ -37,6 +64,13 @@ public Extension(Project project) {
             this.project = project;
         }
 
+        /**
+         * Makes the given configuration resolve dependency jars with their marked classes moved to the root package.
+         */
+        public void relocateDependencies(Configuration configuration) {
+            configuration.getAttributes().attribute(ROOT_PACKAGE_ATTRIBUTE, true);
+        }
+
         public void forSourceSet(SourceSet sourceSet, String newBaseCapability) {
             forSourceSet(sourceSet, newBaseCapability, settings -> {});
         }
@@ -44,46 +78,79 @@ public void forSourceSet(SourceSet sourceSet, String newBaseCapability) {
         public void forSourceSet(SourceSet sourceSet, String newBaseCapability, Action<TransformSettings> action) {
             TransformSettings settings = project.getObjects().newInstance(TransformSettings.class);
             action.execute(settings);
+            var transformers = project.getGradle().getSharedServices().registerIfAbsent(TransformerService.NAME, TransformerService.class, spec -> {});
+            // Lets the list task take the marked Java classes from the processor's list rather than scanning them
+            project.getDependencies().add(sourceSet.getAnnotationProcessorConfigurationName(), project.files(processorClasspath()));
+
+            // Carries the tasks which compile the classes, and is only resolved once a task reads it
+            var classes = sourceSet.getOutput().getClassesDirs().getAsFileTree();
+            var compileJava = project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class);
+            var jar = project.getTasks().named(sourceSet.getJarTaskName(), Jar.class);
 
             var transformList = project.getTasks().register(sourceSet.getTaskName("rootPackageTransformList", ""), TransformListTask.class, task -> {
-                var dirs = sourceSet.getOutput().getClassesDirs();
-                task.dependsOn(dirs.getBuildDependencies());
-                dirs.forEach(f -> task.getInputFiles().from(project.fileTree(f)));
+                task.getInputFiles().from(classes);
+                task.getParallelism().set(settings.getParallelism());
+                // Only present when the annotation processor is on the processor path
+                task.getProcessorLists().from(compileJava.flatMap(compile -> compile.getOptions().getGeneratedSourceOutputDirectory().file(RootPackageProcessor.LIST_FILE)));
+                task.getProcessedClassesDirectory().set(compileJava.flatMap(JavaCompile::getDestinationDirectory));
             });
 
+            var listFile = transformList.flatMap(TransformListTask::getListFile);
+            File classCache = new File(project.getGradle().getGradleUserHomeDir(), "caches/rootpackagetransformer/classes");
+
             var transform = project.getTasks().register(sourceSet.getTaskName("rootPackageTransform", ""), TransformTask.class, task -> {
-                var dirs = sourceSet.getOutput().getClassesDirs();
-                task.dependsOn(dirs.getBuildDependencies());
-                dirs.forEach(f -> task.getInputFiles().from(project.fileTree(f)));
-                task.getListFile().set(transformList.get().getListFile());
-                task.dependsOn(transformList.get());
+                task.getInputFiles().from(classes);
+                task.getListFile().set(listFile);
+                task.getParallelism().set(settings.getParallelism());
+                task.getTransformerService().set(transformers);
+                task.usesService(transformers);
+                task.getCompactConstantPool().set(settings.getCompactConstantPool());
+                task.getClassCacheDirectory().fileProvider(settings.getUseClassCache().map(use -> use ? classCache : null));
             });
 
-            ManifestLocation jarManifest = manifestLocation(sourceSet, "jar");
-
-            project.getTasks().named(sourceSet.getTaskName("jar", ""), Jar.class, task -> {
-                task.from(transformList.get().getListFile(), spec -> {
+            jar.configure(task -> {
+                task.from(listFile, spec -> {
                     spec.into("META-INF");
                 });
             });
 
-            var rootPackageJar = project.getTasks().register(sourceSet.getTaskName("rootPackageJar", ""), Jar.class, task -> {
-                task.dependsOn(transform.get());
-                task.from(transform.get().getOutputDirectory());
-                task.getArchiveClassifier().set("rootpackage-"+sourceSet.getName());
-                task.from(sourceSet.getOutput().getResourcesDir());
-
-                task.from(transformList.get().getListFile(), spec -> {
-                    spec.into("META-INF");
+            TaskProvider<? extends Task> rootPackageJar;
+            Provider<RegularFile> rootPackageArchive;
+            if (settings.getTransformJarDirectly().get()) {
+                String classifier = "rootpackage-"+sourceSet.getName();
+                var directJar = project.getTasks().register(sourceSet.getTaskName("rootPackageJar", ""), TransformJarTask.class, task -> {
+                    task.getInputJar().set(jar.flatMap(Jar::getArchiveFile));
+                    task.getListFile().set(listFile);
+                    task.getParallelism().set(settings.getParallelism());
+                    task.getTransformerService().set(transformers);
+                    task.usesService(transformers);
+                    task.getCompactConstantPool().set(settings.getCompactConstantPool());
+                    task.getArchiveFile().set(jar.flatMap(j -> j.getDestinationDirectory().file(archiveName(j, classifier))));
                 });
+                rootPackageJar = directJar;
+                rootPackageArchive = directJar.flatMap(TransformJarTask::getArchiveFile);
+            } else {
+                ManifestLocation jarManifest = manifestLocation(sourceSet, "jar");
 
-                task.manifest(m -> m.from(jarManifest.manifestDir().get().file("META-INF/MANIFEST.MF")));
-                task.dependsOn(jarManifest.originalManifest());
-            });
+                var transformedJar = project.getTasks().register(sourceSet.getTaskName("rootPackageJar", ""), Jar.class, task -> {
+                    task.from(transform.flatMap(TransformTask::getOutputDirectory));
+                    task.getArchiveClassifier().set("rootpackage-"+sourceSet.getName());
+                    task.from(sourceSet.getOutput().getResourcesDir());
+
+                    task.from(listFile, spec -> {
+                        spec.into("META-INF");
+                    });
+
+                    task.manifest(m -> m.from(jarManifest.manifestDir().map(dir -> dir.file("META-INF/MANIFEST.MF"))));
+                    task.dependsOn(jarManifest.originalManifest());
+                });
+                rootPackageJar = transformedJar;
+                rootPackageArchive = transformedJar.flatMap(Jar::getArchiveFile);
+            }
 
             AdhocComponentWithVariants javaComponent = (AdhocComponentWithVariants) project.getComponents().getByName("java");
 
-            setupRootPackageElements(sourceSet, newBaseCapability, rootPackageJar, transform, javaComponent);
+            setupRootPackageElements(sourceSet, newBaseCapability, rootPackageJar, rootPackageArchive, transform, javaComponent);
 
             var assemble = project.getTasks().named("assemble");
 
@@ -91,23 +158,23 @@ public void forSourceSet(SourceSet sourceSet, String newBaseCapability, Action<T
                 var sourcesJarManifest = manifestLocation(sourceSet, "sourcesJar");
 
                 var transformSources = project.getTasks().register(sourceSet.getTaskName("rootPackageTransformSources", ""), TransformSourcesTask.class, task -> {
-                    task.getListFile().set(transformList.get().getListFile());
+                    task.getListFile().set(listFile);
                     task.getTransformedExtensions().set(settings.getTransformedSourceExtensions());
-                    FileCollection dirs = sourceSet.getAllSource();
-                    task.dependsOn(dirs.getBuildDependencies());
-                    task.getCopyConfiguration().set(new SpecConfiguration(dirs));
+                    task.getSources().from(sourceSet.getAllSource());
+                    task.getParallelism().set(settings.getParallelism());
+                    task.getTransformerService().set(transformers);
+                    task.usesService(transformers);
                 });
 
                 var rootPackageSourcesJar = project.getTasks().register(sourceSet.getTaskName("rootPackageSourcesJar", ""), Jar.class, task -> {
-                    task.dependsOn(transformSources.get());
-                    task.from(transformSources.get().getDestinationDirectory());
+                    task.from(transformSources.flatMap(TransformSourcesTask::getDestinationDirectory));
                     task.getArchiveClassifier().set("rootpackage-"+sourceSet.getName()+"-sources");
 
-                    task.from(transformList.get().getListFile(), spec -> {
+                    task.from(listFile, spec -> {
                         spec.into("META-INF");
                     });
 
-                    task.manifest(m -> m.from(sourcesJarManifest.manifestDir().get().file("META-INF/MANIFEST.MF")));
+                    task.manifest(m -> m.from(sourcesJarManifest.manifestDir().map(dir -> dir.file("META-INF/MANIFEST.MF"))));
                     task.dependsOn(sourcesJarManifest.originalManifest());
                 });
 
@@ -124,30 +191,13 @@ public void forSourceSet(SourceSet sourceSet, String newBaseCapability, Action<T
             });
         }
 
-        // Can't be a lambda or local class because gradle serialization doesn't like it
-        // Can't be a record because we're running with gradle versions before those're supported
-        @SuppressWarnings("ClassCanBeRecord")
-        private static class SpecConfiguration implements Action<CopySpec> {
-            private final FileCollection source;
-
-            private SpecConfiguration(FileCollection source) {
-                this.source = source;
-            }
-
-            @Override
-            public void execute(CopySpec copySpec) {
-                copySpec.from(source);
-            }
-        }
-
         private ManifestLocation manifestLocation(SourceSet sourceSet, String taskName) {
             var originalManifestName = sourceSet.getTaskName(taskName+"RootPackageOriginalManifest", "");
             var manifestDir = project.getLayout().getBuildDirectory().dir("extracted/"+originalManifestName);
 
             var originalManifest = project.getTasks().register(originalManifestName, Copy.class, task -> {
-                var jar = (Jar) project.getTasks().getByName(sourceSet.getTaskName(taskName, ""));
-                task.dependsOn(jar);
-                task.from(project.zipTree(jar.getArchiveFile()));
+                var jar = project.getTasks().named(sourceSet.getTaskName(taskName, ""), Jar.class);
+                task.from(project.zipTree(jar.flatMap(Jar::getArchiveFile)));
                 task.include("META-INF/MANIFEST.MF");
                 task.into(manifestDir);
             });
@@ -156,15 +206,15 @@ private ManifestLocation manifestLocation(SourceSet sourceSet, String taskName)
 
         private record ManifestLocation(org.gradle.api.provider.Provider<org.gradle.api.file.Directory> manifestDir, TaskProvider<Copy> originalManifest) { }
 
-        private void setupRootPackageElements(SourceSet sourceSet, String newBaseCapability, TaskProvider<Jar> rootPackageJar, TaskProvider<TransformTask> transform, AdhocComponentWithVariants component) {
+        private void setupRootPackageElements(SourceSet sourceSet, String newBaseCapability, TaskProvider<? extends Task> rootPackageJar, Provider<RegularFile> rootPackageArchive, TaskProvider<TransformTask> transform, AdhocComponentWithVariants component) {
             var rootPackageRuntimeElements = project.getConfigurations().maybeCreate(sourceSet.getTaskName("rootPackageRuntimeElements", ""));
             var runtimeElements = project.getConfigurations().getByName(sourceSet.getTaskName(JavaPlugin.RUNTIME_ELEMENTS_CONFIGURATION_NAME, ""));
 
             var rootPackageApiElements = project.getConfigurations().maybeCreate(sourceSet.getTaskName("rootPackageApiElements", ""));
             var apiElements = project.getConfigurations().getByName(sourceSet.getTaskName(JavaPlugin.API_ELEMENTS_CONFIGURATION_NAME, ""));
 
-            setupElementsCopyOf(sourceSet, newBaseCapability, rootPackageJar, transform, rootPackageRuntimeElements, runtimeElements);
-            setupElementsCopyOf(sourceSet, newBaseCapability, rootPackageJar, transform, rootPackageApiElements, apiElements);
+            setupElementsCopyOf(sourceSet, newBaseCapability, rootPackageJar, rootPackageArchive, transform, rootPackageRuntimeElements, runtimeElements);
+            setupElementsCopyOf(sourceSet, newBaseCapability, rootPackageJar, rootPackageArchive, transform, rootPackageApiElements, apiElements);
 
             component.addVariantsFromConfiguration(rootPackageRuntimeElements, v -> {
                 v.mapToMavenScope("runtime");
@@ -183,7 +233,7 @@ private void setupRootPackageElements(SourceSet sourceSet, String newBaseCapabil
             });
         }
 
-        private void setupElementsCopyOf(SourceSet sourceSet, String newBaseCapability, TaskProvider<Jar> rootPackageJar, TaskProvider<TransformTask> transform, Configuration rootPackageElements, Configuration originalElements) {
+        private void setupElementsCopyOf(SourceSet sourceSet, String newBaseCapability, TaskProvider<? extends Task> rootPackageJar, Provider<RegularFile> rootPackageArchive, TaskProvider<TransformTask> transform, Configuration rootPackageElements, Configuration originalElements) {
             rootPackageElements.setCanBeConsumed(true);
             rootPackageElements.setCanBeResolved(false);
             rootPackageElements.getDependencies().addAllLater(project.provider(originalElements::getAllDependencies));
@@ -194,9 +244,8 @@ private void setupElementsCopyOf(SourceSet sourceSet, String newBaseCapability,
             originalElements.getOutgoing().capability(newBaseCapability);
 
             rootPackageElements.getOutgoing().getVariants().create("classes", variant -> {
-                variant.artifact(transform.get().getOutputDirectory(), artifact -> {
+                variant.artifact(transform.flatMap(TransformTask::getOutputDirectory), artifact -> {
                     artifact.setType(ArtifactTypeDefinition.JVM_CLASS_DIRECTORY);
-                    artifact.builtBy(transform.get());
                 });
                 variant.attributes(attrs -> {
                     attrs.attribute(LibraryElements.LIBRARY_ELEMENTS_ATTRIBUTE, project.getObjects().named(LibraryElements.class, LibraryElements.CLASSES));
@@ -214,8 +263,8 @@ private void setupElementsCopyOf(SourceSet sourceSet, String newBaseCapability,
             });
 
             project.artifacts(artifactHandler ->
-                artifactHandler.add(rootPackageElements.getName(), rootPackageJar.get().getArchiveFile(), spec -> {
-                    spec.builtBy(rootPackageJar.get());
+                artifactHandler.add(rootPackageElements.getName(), rootPackageArchive, spec -> {
+                    spec.builtBy(rootPackageJar);
                     spec.setClassifier(sourceSetClassifier(sourceSet, ""));
                 })
             );
@@ -223,19 +272,56 @@ private void setupElementsCopyOf(SourceSet sourceSet, String newBaseCapability,
             prefixArtifacts(originalElements);
         }
 
-        private void prefixArtifacts(Configuration elements) {
-            var artifacts = new ArrayList<>(elements.getOutgoing().getArtifacts());
-            elements.getOutgoing().getArtifacts().clear();
-            project.artifacts(ah -> {
-                for (var artifact : artifacts) {
-                    ah.add(elements.getName(), artifact.getFile(), artifactConfig -> {
-                        artifactConfig.builtBy(artifact.getBuildDependencies());
-                        artifactConfig.setType(artifact.getType());
-                        artifactConfig.setExtension(artifact.getExtension());
-                        artifactConfig.setClassifier((artifact.getClassifier() == null || artifact.getClassifier().isEmpty()) ? "jpms" : "jpms-" + artifact.getClassifier());
-                    });
-                }
-            });
+        private static void prefixArtifacts(Configuration elements) {
+            var artifacts = elements.getOutgoing().getArtifacts();
+            var prefixed = new ArrayList<PublishArtifact>();
+            for (var artifact : artifacts) {
+                prefixed.add(new PrefixedArtifact(artifact));
+            }
+            artifacts.clear();
+            artifacts.addAll(prefixed);
+        }
+
+        /**
+         * The given artifact, with its classifier prefixed by {@code jpms}. Reads the original only when asked for, as
+         * reading the file of an artifact registered lazily configures the task which builds it.
+         */
+        private record PrefixedArtifact(PublishArtifact original) implements PublishArtifact {
+            @Override
+            public String getName() {
+                return original.getName();
+            }
+
+            @Override
+            public String getExtension() {
+                return original.getExtension();
+            }
+
+            @Override
+            public String getType() {
+                return original.getType();
+            }
+
+            @Override
+            public String getClassifier() {
+                String classifier = original.getClassifier();
+                return (classifier == null || classifier.isEmpty()) ? "jpms" : "jpms-" + classifier;
+            }
+
+            @Override
+            public File getFile() {
+                return original.getFile();
+            }
+
+            @Override
+            public Date getDate() {
+                return original.getDate();
+            }
+
+            @Override
+            public TaskDependency getBuildDependencies() {
+                return original.getBuildDependencies();
+            }
         }
 
         private Configuration setupRootPackageSourcesElements(SourceSet sourceSet, String newBaseCapability, TaskProvider<Jar> rootPackageSourcesJar) {
@@ -247,8 +333,8 @@ private Configuration setupRootPackageSourcesElements(SourceSet sourceSet, Strin
             copyAttributes(sourcesElements, rootPackageSourcesElements);
             sourcesElements.getOutgoing().capability(newBaseCapability);
             project.artifacts(artifactHandler ->
-                artifactHandler.add(rootPackageSourcesElements.getName(), rootPackageSourcesJar.get().getArchiveFile(), spec -> {
-                    spec.builtBy(rootPackageSourcesJar.get());
+                artifactHandler.add(rootPackageSourcesElements.getName(), rootPackageSourcesJar.flatMap(Jar::getArchiveFile), spec -> {
+                    spec.builtBy(rootPackageSourcesJar);
                     spec.setClassifier(sourceSetClassifier(sourceSet, "sources"));
                 })
             );
@@ -258,6 +344,33 @@ private Configuration setupRootPackageSourcesElements(SourceSet sourceSet, Strin
             return rootPackageSourcesElements;
         }
 
+        /**
+         * {@return the annotation processor, and the annotation it needs, from wherever this plugin loaded them} These
+         * always match the version of the plugin, and need no repository to resolve.
+         */
+        private static List<File> processorClasspath() {
+            return List.of(codeSource(RootPackageProcessor.class), codeSource(RootPackage.class));
+        }
+
+        private static File codeSource(Class<?> type) {
+            try {
+                return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static Provider<String> archiveName(Jar jar, String classifier) {
+            return jar.getArchiveBaseName()
+                    .zip(jar.getArchiveAppendix().orElse(""), Extension::appendPart)
+                    .zip(jar.getArchiveVersion().orElse(""), Extension::appendPart)
+                    .zip(jar.getArchiveExtension(), (name, extension) -> appendPart(name, classifier)+"."+extension);
+        }
+
+        private static String appendPart(String name, String part) {
+            return part.isEmpty() ? name : name+"-"+part;
+        }
+
         private static String sourceSetClassifier(SourceSet sourceSet, String classifier) {
             if (sourceSet.getName().equals("main")) {
                 return classifier;
@@ -273,10 +386,37 @@ public static abstract class TransformSettings {
 
             public abstract Property<org.gradle.api.specs.Spec<String>> getTransformedSourceExtensions();
 
+            public abstract Property<Integer> getParallelism();
+
+            /**
+             * Whether to build the root package jar by transforming the original jar in a single pass, copying
+             * untouched entries without recompressing them, rather than by re-packing the transformed classes
+             * directory.
+             */
+            public abstract Property<Boolean> getTransformJarDirectly();
+
+            /**
+             * Whether to keep transformed classes in a cache under the gradle user home, shared by every build on the
+             * machine, so that unchanged classes are not transformed again after a clean or a branch switch. Off by
+             * default.
+             */
+            public abstract Property<Boolean> getUseClassCache();
+
+            /**
+             * Whether to rebuild the constant pools of rewritten classes, merging the duplicate constants that moving
+             * classes can leave behind and dropping unused ones. Produces smaller classes at the cost of a slower
+             * transform.
+             */
+            public abstract Property<Boolean> getCompactConstantPool();
+
             @Inject
             public TransformSettings() {
                 getTransformSources().convention(false);
                 getTransformedSourceExtensions().convention(new DefaultExtensionSpec());
+                getParallelism().convention(ParallelTasks.defaultParallelism());
+                getTransformJarDirectly().convention(false);
+                getUseClassCache().convention(false);
+                getCompactConstantPool().convention(false);
             }
         }
 
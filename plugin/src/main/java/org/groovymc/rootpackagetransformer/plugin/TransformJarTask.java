@@ -0,0 +1,78 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ProjectLayout;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.groovymc.rootpackagetransformer.transform.JarTransformer;
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
+import org.groovymc.rootpackagetransformer.transform.TransformMetrics;
+import org.groovymc.rootpackagetransformer.transform.TransformPipeline;
+
+import javax.inject.Inject;
+import java.io.IOException;
+
+@CacheableTask
+public abstract class TransformJarTask extends DefaultTask {
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getInputJar();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getListFile();
+
+    @OutputFile
+    public abstract RegularFileProperty getArchiveFile();
+
+    @Input
+    public abstract Property<Boolean> getCompactConstantPool();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * Roughly how many bytes of classes may be held in memory at once, between being read and being written.
+     */
+    @Internal
+    public abstract Property<Long> getMemoryBudget();
+
+    @Internal
+    public abstract Property<TransformerService> getTransformerService();
+
+    /**
+     * Where to write the counters and timings of each run. Not an output, as it differs between otherwise identical
+     * runs.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
+    @Inject
+    public TransformJarTask() {
+        getCompactConstantPool().convention(false);
+        getParallelism().convention(ParallelTasks.defaultParallelism());
+        getMemoryBudget().convention(TransformPipeline.defaultMemoryBudget());
+        getReportFile().convention(getLayout().getBuildDirectory().file("reports/rootPackageTransformer/"+getName()+".json"));
+    }
+
+    @Inject
+    protected abstract ProjectLayout getLayout();
+
+    @TaskAction
+    protected void run() throws IOException {
+        long start = System.nanoTime();
+        var metrics = new TransformMetrics();
+        var transformer = getTransformerService().get().forListFile(getListFile().get().getAsFile().toPath());
+        new JarTransformer(transformer, metrics, getCompactConstantPool().get(), getParallelism().get(), getMemoryBudget().get())
+                .transform(getInputJar().get().getAsFile().toPath(), getArchiveFile().get().getAsFile().toPath());
+        TransformReport.write(this, getReportFile().get().getAsFile().toPath(), metrics, System.nanoTime() - start, false);
+    }
+}
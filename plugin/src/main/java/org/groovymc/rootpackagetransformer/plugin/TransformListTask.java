@@ -2,36 +2,190 @@
 
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
 import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.groovymc.rootpackagetransformer.transform.TransformMetrics;
 
 import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
 @CacheableTask
 public abstract class TransformListTask extends DefaultTask {
+    // Local classes are named after their enclosing class, a number, and their own name
+    private static final Pattern LOCAL_CLASS_FILE = Pattern.compile("\\$\\d");
+
     @InputFiles
+    @Incremental
     @PathSensitive(PathSensitivity.NONE)
     public abstract ConfigurableFileCollection getInputFiles();
 
+    /**
+     * Lists of marked classes written by the annotation processor as it compiled them. Incremental, as only a list
+     * appearing or disappearing calls for scanning the classes it covers, or no longer scanning them.
+     */
+    @InputFiles
+    @Incremental
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract ConfigurableFileCollection getProcessorLists();
+
+    /**
+     * Where the classes the annotation processor sees are compiled to. Input files under it are not scanned while there
+     * is a list from the processor, which already names the marked classes among them, except for those which could be
+     * local classes: annotation processors never see inside method bodies.
+     */
+    @Internal
+    public abstract DirectoryProperty getProcessedClassesDirectory();
+
     @OutputFile
     public abstract RegularFileProperty getListFile();
 
+    /**
+     * The list compiled into the tables the transformer matches with, which tasks using the list load instead of
+     * compiling it themselves. Kept next to the list, where they look for it.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getCompiledListFile();
+
+    /**
+     * Records which input files were found to hold relocated classes, so that incremental runs only need to rescan
+     * changed files.
+     */
+    @LocalState
+    public abstract RegularFileProperty getStateFile();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * Where to write the counters and timings of each run. Not an output, as it differs between otherwise identical
+     * runs.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
     @Inject
     public TransformListTask() {
-        getListFile().convention(getProject().getLayout().getBuildDirectory().file("transformed/"+getName()+"/org.groovymc.rootpackagetransformer.transformedclasses"));
+        getListFile().convention(getLayout().getBuildDirectory().file("transformed/"+getName()+"/org.groovymc.rootpackagetransformer.transformedclasses"));
+        getCompiledListFile().convention(getLayout().file(getListFile().getLocationOnly().map(list -> TransformerService.compiledListFile(list.getAsFile()))));
+        getStateFile().convention(getLayout().getBuildDirectory().file("transformed/"+getName()+"/scan-state"));
+        getParallelism().convention(ParallelTasks.defaultParallelism());
+        getReportFile().convention(getLayout().getBuildDirectory().file("reports/rootPackageTransformer/"+getName()+".json"));
     }
 
+    @Inject
+    protected abstract ProjectLayout getLayout();
+
     @TaskAction
-    protected void run() throws IOException {
-        var transformer = RootPackageTransformer.classesToMove(getInputFiles().getFiles().stream().map(File::toPath).toList());
+    protected void run(InputChanges inputChanges) throws IOException {
+        long start = System.nanoTime();
+        var metrics = new TransformMetrics();
+        var stateFile = getStateFile().get().getAsFile().toPath();
+        Set<String> processed = new HashSet<>();
+        for (File list : getProcessorLists().getFiles()) {
+            if (list.isFile()) {
+                Files.readAllLines(list.toPath()).stream().filter(line -> !line.isBlank()).forEach(processed::add);
+            }
+        }
+        Path processedDir = !processed.isEmpty() && getProcessedClassesDirectory().isPresent()
+                ? getProcessedClassesDirectory().get().getAsFile().toPath()
+                : null;
+        Predicate<File> toSkip = file -> processedDir != null && file.toPath().startsWith(processedDir) && !LOCAL_CLASS_FILE.matcher(file.getName()).find();
+        Map<String, String> relocated = new ConcurrentHashMap<>();
+        List<File> toScan = new ArrayList<>();
+        boolean incremental = inputChanges.isIncremental() && Files.isRegularFile(stateFile) && !processorToggled(inputChanges);
+        if (incremental) {
+            relocated.putAll(readState(stateFile));
+            for (FileChange change : inputChanges.getFileChanges(getInputFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) {
+                    continue;
+                }
+                relocated.remove(change.getFile().getAbsolutePath());
+                if (change.getChangeType() != ChangeType.REMOVED && !toSkip.test(change.getFile())) {
+                    toScan.add(change.getFile());
+                }
+            }
+        } else {
+            for (File file : getInputFiles().getFiles()) {
+                if (!toSkip.test(file)) {
+                    toScan.add(file);
+                }
+            }
+        }
+        ParallelTasks.forEach(toScan, getParallelism().get(), file -> {
+            String name = RootPackageTransformer.relocatedName(file.toPath(), metrics);
+            if (name != null) {
+                relocated.put(file.getAbsolutePath(), name);
+            }
+        });
+        writeState(stateFile, relocated);
+        var classes = new HashSet<>(relocated.values());
+        classes.addAll(processed);
+        var transformer = new RootPackageTransformer(classes);
         transformer.writeTargetClasses(getListFile().getAsFile().get().toPath());
+        transformer.writeCompiled(getCompiledListFile().getAsFile().get().toPath());
+        TransformReport.write(this, getReportFile().get().getAsFile().toPath(), metrics, System.nanoTime() - start, incremental);
+    }
+
+    /**
+     * {@return whether a list from the annotation processor appeared or disappeared since the last run} The classes it
+     * covers were then scanned last time but are not now, or the other way round, so all are scanned again.
+     */
+    private boolean processorToggled(InputChanges inputChanges) {
+        for (FileChange change : inputChanges.getFileChanges(getProcessorLists())) {
+            if (change.getChangeType() != ChangeType.MODIFIED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, String> readState(Path stateFile) throws IOException {
+        Map<String, String> state = new HashMap<>();
+        for (String line : Files.readAllLines(stateFile)) {
+            int separator = line.lastIndexOf('\t');
+            if (separator != -1) {
+                state.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        return state;
+    }
+
+    private static void writeState(Path stateFile, Map<String, String> state) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (var entry : new TreeMap<>(state).entrySet()) {
+            lines.add(entry.getKey() + '\t' + entry.getValue());
+        }
+        Files.createDirectories(stateFile.getParent());
+        Files.write(stateFile, lines);
     }
 }
@@ -0,0 +1,47 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.api.Task;
+import org.groovymc.rootpackagetransformer.transform.TransformMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the metrics of a task run to a JSON report, and logs a summary of them.
+ */
+final class TransformReport {
+    private TransformReport() {}
+
+    static void write(Task task, Path reportFile, TransformMetrics metrics, long durationNanos, boolean incremental) throws IOException {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"task\": ").append(string(task.getPath())).append(",\n");
+        json.append("  \"incremental\": ").append(incremental).append(",\n");
+        json.append("  \"durationMillis\": ").append(durationMillis).append(",\n");
+        json.append("  \"counters\": ");
+        object(json, metrics.counters());
+        json.append(",\n  \"timersMillis\": ");
+        object(json, metrics.timersMillis());
+        json.append("\n}\n");
+        Files.createDirectories(reportFile.getParent());
+        Files.writeString(reportFile, json);
+        task.getLogger().info("{} took {}ms: {}", task.getPath(), durationMillis, metrics.summary());
+    }
+
+    private static void object(StringBuilder json, Map<String, Long> values) {
+        json.append('{');
+        boolean first = true;
+        for (var entry : values.entrySet()) {
+            json.append(first ? "\n" : ",\n").append("    ").append(string(entry.getKey())).append(": ").append(entry.getValue());
+            first = false;
+        }
+        json.append("\n  }");
+    }
+
+    private static String string(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -2,32 +2,59 @@
 
 import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.CopySpec;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
-import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
+import org.groovymc.rootpackagetransformer.transform.TransformPipeline;
 
 import javax.inject.Inject;
+import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @CacheableTask
 public abstract class TransformSourcesTask extends DefaultTask {
+    // Files which are not transformed are copied through the buffer of Files.copy
+    private static final long COPIED_FILE_WEIGHT = 16 << 10;
+
     @InputFile
     @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getListFile();
 
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSources();
+
+    /**
+     * @deprecated Add the sources to {@link #getSources()} instead. When this is set, the sources are copied as it
+     * configures and then transformed in place, as they were before the sources could be set directly.
+     */
+    @Deprecated
     @Nested
+    @Optional
     public abstract Property<Action<CopySpec>> getCopyConfiguration();
 
     @OutputDirectory
@@ -36,30 +63,85 @@ public abstract class TransformSourcesTask extends DefaultTask {
     @Nested
     public abstract Property<Spec<String>> getTransformedExtensions();
 
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * Roughly how many bytes of sources may be held in memory at once, between being read and being written.
+     */
+    @Internal
+    public abstract Property<Long> getMemoryBudget();
+
+    @Internal
+    public abstract Property<TransformerService> getTransformerService();
+
     @Inject
     public TransformSourcesTask() {
-        getDestinationDirectory().convention(getProject().getLayout().getBuildDirectory().dir("transformed/"+getName()));
+        getDestinationDirectory().convention(getLayout().getBuildDirectory().dir("transformed/"+getName()));
+        getParallelism().convention(ParallelTasks.defaultParallelism());
+        getMemoryBudget().convention(TransformPipeline.defaultMemoryBudget());
     }
 
+    @Inject
+    protected abstract ProjectLayout getLayout();
+
     @Inject
     protected abstract FileSystemOperations getFileSystemOperations();
 
     @TaskAction
-    protected void run() {
+    protected void run() throws IOException {
         if (getDestinationDirectory().getAsFile().get().exists()) {
             getFileSystemOperations().delete(spec -> spec.delete(getDestinationDirectory().get()));
         }
+        var destination = getDestinationDirectory().getAsFile().get().toPath();
+        Files.createDirectories(destination);
+        var transformer = getTransformerService().get().forListFile(getListFile().get().getAsFile().toPath());
+        var transformedExtensions = getTransformedExtensions().get();
+
+        if (getCopyConfiguration().isPresent()) {
+            getLogger().warn("The copyConfiguration of task "+getPath()+" is deprecated; set its sources instead");
+            getFileSystemOperations().copy(spec -> {
+                getCopyConfiguration().get().execute(spec);
+                spec.into(destination);
+            });
+            transformer.applyToAllInDirectory(destination, transformedExtensions::isSatisfiedBy, getParallelism().get(), getMemoryBudget().get());
+            return;
+        }
 
-        getFileSystemOperations().copy(spec -> {
-            getCopyConfiguration().get().execute(spec);
-            spec.into(getDestinationDirectory());
+        Map<String, File> sources = new LinkedHashMap<>();
+        getSources().getAsFileTree().visit(details -> {
+            if (details.isDirectory()) {
+                return;
+            }
+            String relativePath = details.getRelativePath().getPathString();
+            var existing = sources.putIfAbsent(relativePath, details.getFile());
+            // The same directory may be both a source and a resource directory
+            if (existing != null && !existing.equals(details.getFile())) {
+                throw new GradleException("Both "+existing+" and "+details.getFile()+" are sources for "+relativePath);
+            }
         });
 
-        try {
-            var transformer = new RootPackageTransformer(getListFile().get().getAsFile().toPath());
-            transformer.applyToAllInDirectory(getDestinationDirectory().getAsFile().get().toPath(), getTransformedExtensions().get()::isSatisfiedBy);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+        // Each file is read, transformed and written in one go, as the transformer streams it from source to destination
+        new TransformPipeline(getParallelism().get(), getMemoryBudget().get()).run(sources.entrySet(),
+                entry -> isTransformed(entry.getKey(), transformedExtensions) ? transformer.weight(entry.getKey(), entry.getValue().length()) : COPIED_FILE_WEIGHT,
+                entry -> entry,
+                entry -> {
+                    String relativePath = entry.getKey();
+                    Path source = entry.getValue().toPath();
+                    if (isTransformed(relativePath, transformedExtensions)) {
+                        transformer.applyTo(source, destination, relativePath);
+                    } else {
+                        Path target = destination.resolve(relativePath);
+                        Files.createDirectories(target.getParent());
+                        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return entry;
+                },
+                entry -> {});
+    }
+
+    private static boolean isTransformed(String relativePath, Spec<String> transformedExtensions) {
+        int extension = relativePath.lastIndexOf('.');
+        return extension != -1 && relativePath.lastIndexOf('/') < extension && transformedExtensions.isSatisfiedBy(relativePath.substring(extension + 1));
     }
 }
@@ -1,66 +1,292 @@
 package org.groovymc.rootpackagetransformer.plugin;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
-import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.ProjectLayout;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.groovymc.rootpackagetransformer.transform.ConstantPoolRewriter;
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
 import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.groovymc.rootpackagetransformer.transform.TransformMetrics;
+import org.groovymc.rootpackagetransformer.transform.TransformPipeline;
 
 import javax.inject.Inject;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @CacheableTask
 public abstract class TransformTask extends DefaultTask {
+    private static final long DEFAULT_CLASS_CACHE_SIZE = 512L * 1024 * 1024;
+
     @InputFiles
-    @PathSensitive(PathSensitivity.NONE)
+    @Incremental
+    @PathSensitive(PathSensitivity.RELATIVE)
     public abstract ConfigurableFileCollection getInputFiles();
 
     @OutputDirectory
     public abstract DirectoryProperty getOutputDirectory();
 
+    /**
+     * Incremental, as a change to the list only affects the classes which mention the classes added to or removed from
+     * it, which are found through the {@link #getIndexFile() index}.
+     */
     @InputFile
+    @Incremental
     @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getListFile();
 
+    /**
+     * Records what each class was transformed to, and which classes to move it could mention.
+     */
+    @LocalState
+    public abstract RegularFileProperty getIndexFile();
+
+    /**
+     * Whether to rebuild the constant pools of rewritten classes, merging duplicate constants left behind by rewriting.
+     */
+    @Input
+    public abstract Property<Boolean> getCompactConstantPool();
+
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * Roughly how many bytes of classes may be held in memory at once, between being read and being written.
+     */
+    @Internal
+    public abstract Property<Long> getMemoryBudget();
+
+    @Internal
+    public abstract Property<TransformerService> getTransformerService();
+
+    /**
+     * Where to keep transformed classes for reuse by later builds, or unset to not keep them. Not an input, as the
+     * cache never changes what is output.
+     */
+    @Internal
+    public abstract DirectoryProperty getClassCacheDirectory();
+
+    /**
+     * How many bytes the class cache may take up before its least recently used entries are evicted.
+     */
+    @Internal
+    public abstract Property<Long> getClassCacheSize();
+
+    /**
+     * Where to write the counters and timings of each run. Not an output, as it differs between otherwise identical
+     * runs.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
     @Inject
     public TransformTask() {
-        getOutputDirectory().convention(getProject().getLayout().getBuildDirectory().dir("transformed/"+getName()));
+        getOutputDirectory().convention(getLayout().getBuildDirectory().dir("transformed/"+getName()));
+        getParallelism().convention(ParallelTasks.defaultParallelism());
+        getMemoryBudget().convention(TransformPipeline.defaultMemoryBudget());
+        getIndexFile().convention(getLayout().getBuildDirectory().file("transformed/"+getName()+"-state/references"));
+        getClassCacheSize().convention(DEFAULT_CLASS_CACHE_SIZE);
+        getCompactConstantPool().convention(false);
+        getReportFile().convention(getLayout().getBuildDirectory().file("reports/rootPackageTransformer/"+getName()+".json"));
     }
 
     @Inject
-    protected abstract FileSystemOperations getFileSystemOperations();
+    protected abstract ProjectLayout getLayout();
 
     @TaskAction
-    protected void run() throws IOException {
-        if (getOutputDirectory().get().getAsFile().exists()) {
-            getFileSystemOperations().delete(spec -> {
-                spec.delete(getOutputDirectory().get());
-            });
+    protected void run(InputChanges inputChanges) throws IOException {
+        long start = System.nanoTime();
+        var metrics = new TransformMetrics();
+        var transformer = getTransformerService().get().forListFile(getListFile().get().getAsFile().toPath());
+        var rewriter = new ConstantPoolRewriter(transformer, metrics, getCompactConstantPool().get());
+        var outputDir = getOutputDirectory().get().getAsFile().toPath();
+        var listFile = getListFile().get().getAsFile().toPath();
+        TransformedClassCache classCache = openClassCache(listFile);
+        var indexFile = getIndexFile().get().getAsFile().toPath();
+        ReferenceIndex previous = inputChanges.isIncremental() ? ReferenceIndex.read(indexFile) : null;
+        // Without the index of the last run, there is no telling what it wrote
+        boolean incremental = previous != null;
+        var index = incremental ? previous : new ReferenceIndex(transformer.getTargetClasses());
+        Map<String, File> written = new ConcurrentHashMap<>();
+        Set<File> toRewrite = new LinkedHashSet<>();
+        // Classes which were removed or moved since the last run, or are moved by this one, leave their old outputs behind
+        Set<String> stale = ConcurrentHashMap.newKeySet();
+        if (incremental) {
+            for (FileChange change : inputChanges.getFileChanges(getInputFiles())) {
+                if (change.getFileType() == FileType.DIRECTORY) {
+                    continue;
+                }
+                if (change.getChangeType() == ChangeType.REMOVED) {
+                    var entry = index.remove(change.getFile().getAbsolutePath());
+                    if (entry != null) {
+                        stale.add(entry.outputName());
+                    }
+                } else {
+                    toRewrite.add(change.getFile());
+                }
+            }
+            for (String path : index.affectedBy(transformer.getTargetClasses())) {
+                toRewrite.add(new File(path));
+            }
+            index.setTargets(transformer.getTargetClasses());
+            // Classes left as they are keep their outputs, which no class transformed now may be written over
+            for (var entry : index.outputNames().entrySet()) {
+                var file = new File(entry.getKey());
+                if (!toRewrite.contains(file)) {
+                    claim(written, entry.getValue(), file);
+                }
+            }
+        } else {
+            toRewrite.addAll(getInputFiles().getAsFileTree().getFiles());
         }
-        var transformer = new RootPackageTransformer(getListFile().get().getAsFile().toPath());
-        for (File file : getInputFiles()) {
-            try (var is = new BufferedInputStream(new FileInputStream(file))) {
-                new ConstantPoolRewriter(transformer).rewrite(is, name -> {
-                    var outputDir = getOutputDirectory().get().getAsFile();
-                    var outputFile = new File(outputDir, name + ".class");
-                    outputFile.getParentFile().mkdirs();
-                    return new BufferedOutputStream(new FileOutputStream(outputFile));
-                });
+        // Each class is held both as read and as rewritten
+        new TransformPipeline(getParallelism().get(), getMemoryBudget().get()).run(toRewrite, file -> file.length() * 2,
+                file -> read(file, metrics),
+                (Iterable<ReadClass> reads, TransformPipeline.Sink<TransformedClass> results) -> {
+                    // Each thread rewrites all the classes it takes with one set of buffers
+                    try (var batch = rewriter.batch()) {
+                        for (ReadClass read : reads) {
+                            var transformed = transform(batch, classCache, read, written);
+                            var entry = index.put(read.file().getAbsolutePath(), transformed.name(), RootPackageTransformer.qualifiedNames(read.bytes()));
+                            if (entry != null && !entry.outputName().equals(transformed.name())) {
+                                stale.add(entry.outputName());
+                            }
+                            results.accept(transformed);
+                        }
+                    }
+                },
+                transformed -> write(rewriter, classCache, metrics, outputDir, transformed));
+        if (incremental) {
+            // Unless another class is now written under the same name
+            stale.removeAll(index.outputNames().values());
+            for (String name : stale) {
+                OutputFiles.delete(outputDir.resolve(name + ".class"), outputDir);
             }
+        } else {
+            Set<Path> outputs = new HashSet<>();
+            for (String name : written.keySet()) {
+                outputs.add(outputDir.resolve(name + ".class"));
+            }
+            OutputFiles.deleteAllExcept(outputDir, outputs);
+        }
+        index.write(indexFile);
+        if (classCache != null) {
+            classCache.evictIfNeeded();
+        }
+        TransformReport.write(this, getReportFile().get().getAsFile().toPath(), metrics, System.nanoTime() - start, incremental);
+    }
+
+    private static void claim(Map<String, File> written, String name, File file) {
+        var existing = written.putIfAbsent(name, file);
+        if (existing != null) {
+            throw new GradleException("Both "+existing+" and "+file+" are transformed to class "+name);
+        }
+    }
+
+    private record ReadClass(File file, byte[] bytes) {}
+
+    /**
+     * @param bytes       the class to write, or {@code null} if it is to be restored from the class cache
+     * @param key         the key of the class in the class cache, if there is one
+     * @param passthrough whether the class mentions no class to move, and so is copied as it is
+     */
+    private record TransformedClass(File file, String name, byte[] original, byte[] bytes, String key, boolean passthrough) {}
+
+    private TransformedClassCache openClassCache(Path listFile) throws IOException {
+        if (!getClassCacheDirectory().isPresent()) {
+            return null;
+        }
+        String version = TransformedClassCache.transformerVersion();
+        if (version == null) {
+            getLogger().info("Not using the class cache, as the transformer has no version to key its entries by");
+            return null;
+        }
+        return new TransformedClassCache(getClassCacheDirectory().get().getAsFile().toPath(), version, listFile, getCompactConstantPool().get(), getClassCacheSize().get());
+    }
+
+    private static ReadClass read(File file, TransformMetrics metrics) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
+        return new ReadClass(file, bytes);
+    }
+
+    private static TransformedClass transform(ConstantPoolRewriter.Batch rewriter, TransformedClassCache classCache, ReadClass read, Map<String, File> written) {
+        byte[] bytes = read.bytes();
+        if (!rewriter.mayRewrite(bytes)) {
+            // Not worth hashing for the class cache, as nothing is saved by restoring a copy. Such a class keeps its
+            // name, which is read from its constant pool rather than its path, as nothing ties the two together
+            String name = rewriter.className(bytes);
+            claim(written, name, read.file());
+            return new TransformedClass(read.file(), name, bytes, bytes, null, true);
+        }
+        String key = null;
+        if (classCache != null) {
+            key = classCache.key(bytes);
+            if (classCache.contains(key)) {
+                String name = rewriter.rewrittenName(bytes);
+                claim(written, name, read.file());
+                return new TransformedClass(read.file(), name, bytes, null, key, false);
+            }
+        }
+        var rewritten = rewriter.rewrite(bytes);
+        String name = rewritten == null ? rewriter.rewrittenName(bytes) : rewritten.name();
+        claim(written, name, read.file());
+        return new TransformedClass(read.file(), name, bytes, rewritten == null ? bytes : rewritten.bytes(), key, false);
+    }
+
+    private static void write(ConstantPoolRewriter rewriter, TransformedClassCache classCache, TransformMetrics metrics, Path outputDir, TransformedClass transformed) throws IOException {
+        long start = System.nanoTime();
+        Path destination = outputDir.resolve(transformed.name() + ".class");
+        byte[] bytes = transformed.bytes();
+        if (transformed.passthrough()) {
+            OutputFiles.copyIfChanged(transformed.file().toPath(), destination, bytes);
+            metrics.add(TransformMetrics.Counter.CLASSES_PASSED_THROUGH, 1);
+            metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
+            return;
+        }
+        if (bytes == null) {
+            boolean restored = classCache.restore(transformed.key(), destination);
+            metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
+            if (restored) {
+                metrics.add(TransformMetrics.Counter.CLASS_CACHE_HITS, 1);
+                return;
+            }
+            // Evicted since it was looked up
+            var rewritten = rewriter.rewrite(transformed.original());
+            bytes = rewritten == null ? transformed.original() : rewritten.bytes();
+            start = System.nanoTime();
+        }
+        OutputFiles.writeIfChanged(destination, bytes);
+        if (classCache != null) {
+            metrics.add(TransformMetrics.Counter.CLASS_CACHE_MISSES, 1);
+            classCache.store(transformed.key(), bytes);
         }
+        metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
     }
 }
@@ -0,0 +1,233 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.groovymc.rootpackagetransformer.transform.ConstantPoolRewriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A cache of transformed classes shared by every build on the machine, so that classes which were already transformed
+ * once, by any project or branch, are not transformed again after a clean. Entries are addressed by a hash of the list
+ * of classes to move, of the options which affect the output, of the version of the transformer and of the original
+ * class bytes, and hold the transformed bytes.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so concurrent builds never see a partial entry;
+ * as the same key always holds the same bytes, it does not matter which of two racing writers wins. Hits are copied
+ * into the output directory, never linked, so nothing done to an output later can reach the cache. Each restore
+ * touches a marker file beside the entry, and least recently used entries are evicted by those once the cache grows
+ * beyond its maximum size.
+ */
+final class TransformedClassCache {
+    // Bump whenever the layout of the cache changes; changes to the transformed bytes are covered by the version
+    private static final String FORMAT = "2";
+    private static final String ACCESS_MARKER = ".used";
+    private static final Duration EVICTION_INTERVAL = Duration.ofHours(1);
+
+    private final Path root;
+    private final Path temporary;
+    private final long maxSize;
+    private final byte[] listHash;
+
+    /**
+     * @param version the version of the transformer, from {@link #transformerVersion()}
+     */
+    TransformedClassCache(Path directory, String version, Path listFile, boolean compact, long maxSize) throws IOException {
+        this.root = directory.resolve("v" + FORMAT);
+        this.temporary = root.resolve("tmp");
+        this.maxSize = maxSize;
+        Files.createDirectories(temporary);
+        var digest = digest();
+        digest.update(FORMAT.getBytes(StandardCharsets.UTF_8));
+        digest.update(version.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update((byte) (compact ? 1 : 0));
+        this.listHash = digest.digest(Files.readAllBytes(listFile));
+    }
+
+    /**
+     * {@return the version of the transformer, from the manifest of its jar, or {@code null} if it has none} Without
+     * one, as when it is run from class directories, entries written by an older transformer cannot be told apart.
+     */
+    static String transformerVersion() {
+        return ConstantPoolRewriter.class.getPackage().getImplementationVersion();
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    String key(byte[] original) {
+        var digest = digest();
+        digest.update(listHash);
+        return HexFormat.of().formatHex(digest.digest(original));
+    }
+
+    private Path entry(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    boolean contains(String key) {
+        return Files.exists(entry(key));
+    }
+
+    /**
+     * Copies the entry for the given key to the destination, replacing any file already there.
+     * @return whether there was an entry
+     */
+    boolean restore(String key, Path destination) throws IOException {
+        Path entry = entry(key);
+        try {
+            Files.createDirectories(destination.getParent());
+            // Replaces rather than writes over the destination, which may be a link to an entry made by an older version
+            Files.copy(entry, destination, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // Either never written, or evicted since
+            return false;
+        }
+        touch(entry.resolveSibling(key + ACCESS_MARKER));
+        return true;
+    }
+
+    private static void touch(Path marker) throws IOException {
+        try {
+            Files.setLastModifiedTime(marker, FileTime.from(Instant.now()));
+        } catch (NoSuchFileException e) {
+            try {
+                Files.createFile(marker);
+            } catch (FileAlreadyExistsException ignored) {
+                // Another build got here first
+            } catch (NoSuchFileException ignored) {
+                // Evicted by another build
+            }
+        }
+    }
+
+    void store(String key, byte[] transformed) throws IOException {
+        Path entry = entry(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+        Files.createDirectories(entry.getParent());
+        Path file = Files.createTempFile(temporary, key, ".tmp");
+        try {
+            Files.write(file, transformed);
+            try {
+                Files.move(file, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, entry);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Another build stored the same bytes first
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its maximum size. Walking the cache is not free, so this
+     * does nothing if any build evicted entries recently.
+     */
+    void evictIfNeeded() throws IOException {
+        Path marker = root.resolve("last-eviction");
+        Instant now = Instant.now();
+        try {
+            if (Files.getLastModifiedTime(marker).toInstant().plus(EVICTION_INTERVAL).isAfter(now)) {
+                return;
+            }
+        } catch (NoSuchFileException e) {
+            try {
+                Files.createFile(marker);
+            } catch (FileAlreadyExistsException ignored) {
+                // Another build got here first
+            }
+        }
+        Files.setLastModifiedTime(marker, FileTime.from(now));
+
+        // Left behind by builds which were killed while storing an entry
+        for (Entry file : list(temporary)) {
+            if (file.lastUsed().toInstant().plus(EVICTION_INTERVAL).isBefore(now)) {
+                Files.deleteIfExists(file.path());
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long size = 0;
+        try (var directories = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path directory : directories) {
+                if (directory.equals(temporary)) {
+                    continue;
+                }
+                for (Entry entry : list(directory)) {
+                    entries.add(entry);
+                    size += entry.size();
+                }
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (Entry entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            Files.deleteIfExists(entry.path());
+            Files.deleteIfExists(entry.marker());
+            size -= entry.size();
+        }
+    }
+
+    /**
+     * @param lastUsed when the entry was last restored, or else stored
+     */
+    private record Entry(Path path, Path marker, long size, FileTime lastUsed) {}
+
+    private static List<Entry> list(Path directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (var files = Files.newDirectoryStream(directory, path -> !path.getFileName().toString().endsWith(ACCESS_MARKER))) {
+            for (Path path : files) {
+                Path marker = path.resolveSibling(path.getFileName() + ACCESS_MARKER);
+                try {
+                    var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        entries.add(new Entry(path, marker, attributes.size(), lastUsed(marker, attributes.lastModifiedTime())));
+                    }
+                } catch (NoSuchFileException e) {
+                    // Removed by another build
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Removed by another build
+        }
+        return entries;
+    }
+
+    private static FileTime lastUsed(Path marker, FileTime stored) throws IOException {
+        try {
+            FileTime restored = Files.getLastModifiedTime(marker);
+            return restored.compareTo(stored) > 0 ? restored : stored;
+        } catch (NoSuchFileException e) {
+            return stored;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares compiled transformers between every task which uses the same list of classes, across source sets and
+ * projects. Transformers are keyed by a hash of the list's contents, so a changed list is never served a stale
+ * transformer. Where {@link TransformListTask} left a compiled form of the list next to it, that is loaded rather than
+ * compiling the list again.
+ * <p>
+ * Gradle closes the service at the end of every build, so it only fronts a cache held for the life of the daemon, which
+ * keeps transformers warm from one build to the next.
+ */
+public abstract class TransformerService implements BuildService<BuildServiceParameters.None> {
+    static final String NAME = "rootPackageTransformers";
+    private static final int MAX_ENTRIES = 32;
+
+    // Static, so that a daemon which keeps this plugin's class loader between builds also keeps its transformers warm;
+    // the least recently used go once there are too many, and soft references let them go under memory pressure
+    private static final Map<String, SoftReference<RootPackageTransformer>> TRANSFORMERS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SoftReference<RootPackageTransformer>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    public RootPackageTransformer forListFile(Path listFile) throws IOException {
+        byte[] contents = Files.readAllBytes(listFile);
+        String key = hash(contents);
+        synchronized (TRANSFORMERS) {
+            var reference = TRANSFORMERS.get(key);
+            var transformer = reference == null ? null : reference.get();
+            if (transformer != null) {
+                return transformer;
+            }
+        }
+        List<String> classes = new String(contents, StandardCharsets.UTF_8).lines().toList();
+        var transformer = readCompiled(listFile, classes);
+        if (transformer == null) {
+            transformer = new RootPackageTransformer(classes);
+        }
+        synchronized (TRANSFORMERS) {
+            TRANSFORMERS.put(key, new SoftReference<>(transformer));
+        }
+        return transformer;
+    }
+
+    /**
+     * {@return where the compiled form of the given list is kept}
+     */
+    static File compiledListFile(File listFile) {
+        return new File(listFile.getParentFile(), listFile.getName() + ".matcher");
+    }
+
+    /**
+     * {@return the transformer compiled next to the list, or {@code null} if there is none which matches the list}
+     */
+    private static RootPackageTransformer readCompiled(Path listFile, List<String> classes) {
+        Path compiled = compiledListFile(listFile.toFile()).toPath();
+        if (!Files.isRegularFile(compiled)) {
+            return null;
+        }
+        try {
+            var transformer = RootPackageTransformer.readCompiled(compiled);
+            var sorted = new ArrayList<>(classes);
+            sorted.sort(Comparator.naturalOrder());
+            // Left over from before the list was last changed
+            return transformer.getTargetClasses().equals(sorted) ? transformer : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String hash(byte[] contents) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contents));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
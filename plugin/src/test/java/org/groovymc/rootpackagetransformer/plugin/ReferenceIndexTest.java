@@ -0,0 +1,118 @@
+package org.groovymc.rootpackagetransformer.plugin;
+
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ReferenceIndexTest {
+    @TempDir
+    Path directory;
+
+    private static ReferenceIndex index() {
+        var index = new ReferenceIndex(List.of("a/b/Moved", "a/b/Other"));
+        index.put("a/b/Moved.class", "Moved", Set.of("a/b/Moved", "java/lang/Object"));
+        index.put("a/b/User.class", "a/b/User", Set.of("a/b/User", "La/b/Moved", "java/lang/Object"));
+        index.put("c/Unrelated.class", "c/Unrelated", Set.of("c/Unrelated", "java/lang/Object"));
+        index.put("c/Dotted.class", "c/Dotted", Set.of("c/Dotted", "a.b.Added"));
+        return index;
+    }
+
+    @Test
+    void readsBackWhatWasWritten() throws IOException {
+        var written = index();
+        Path file = directory.resolve("nested/index.bin");
+        written.write(file);
+        var read = ReferenceIndex.read(file);
+        assertNotNull(read, "could not read the index back");
+        assertEquals(written.outputNames(), read.outputNames());
+        for (String path : List.of("a/b/Moved.class", "a/b/User.class", "c/Unrelated.class", "c/Dotted.class")) {
+            var expected = written.remove(path);
+            var actual = read.remove(path);
+            assertNotNull(actual, "lost " + path);
+            assertEquals(expected.outputName(), actual.outputName());
+            assertEquals(Set.of(expected.qualifiedNames()), Set.of(actual.qualifiedNames()));
+        }
+        assertNull(read.remove("a/b/Missing.class"));
+    }
+
+    @Test
+    void rereadIndexFindsTheSameAffectedClasses() throws IOException {
+        var written = index();
+        Path file = directory.resolve("index.bin");
+        written.write(file);
+        var read = ReferenceIndex.read(file);
+        assertNotNull(read, "could not read the index back");
+        for (var list : List.of(List.of("a/b/Moved"), List.of("a/b/Moved", "a/b/Other", "a/b/Added"), List.of("a/b/Other"), List.of("a/b/Moved", "a/b/Other"))) {
+            assertEquals(sorted(written.affectedBy(list)), sorted(read.affectedBy(list)), "for " + list);
+        }
+    }
+
+    @Test
+    void findsOnlyClassesMentioningAChangedTarget() {
+        var index = index();
+        assertEquals(List.of(), index.affectedBy(List.of("a/b/Other", "a/b/Moved")));
+        assertEquals(List.of("a/b/Moved.class", "a/b/User.class"), sorted(index.affectedBy(List.of("a/b/Other"))));
+        // Binary names are mentioned as much as internal ones
+        assertEquals(List.of("c/Dotted.class"), index.affectedBy(List.of("a/b/Moved", "a/b/Other", "a/b/Added")));
+    }
+
+    @Test
+    void recordsTheNewTargets() throws IOException {
+        var index = index();
+        index.setTargets(List.of("a/b/Moved"));
+        assertEquals(List.of(), index.affectedBy(List.of("a/b/Moved")));
+        Path file = directory.resolve("index.bin");
+        index.write(file);
+        var read = ReferenceIndex.read(file);
+        assertNotNull(read, "could not read the index back");
+        assertEquals(List.of(), read.affectedBy(List.of("a/b/Moved")));
+    }
+
+    @Test
+    void tracksRealClasses() throws IOException {
+        byte[] bytes;
+        try (InputStream is = ClassLoader.getSystemResourceAsStream("java/util/ArrayList.class")) {
+            assertNotNull(is, "could not find ArrayList");
+            bytes = is.readAllBytes();
+        }
+        var index = new ReferenceIndex(List.of());
+        index.put("java/util/ArrayList.class", "java/util/ArrayList", RootPackageTransformer.qualifiedNames(bytes));
+        Path file = directory.resolve("index.bin");
+        index.write(file);
+        var read = ReferenceIndex.read(file);
+        assertNotNull(read, "could not read the index back");
+        assertEquals(List.of("java/util/ArrayList.class"), read.affectedBy(List.of("java/util/AbstractList")));
+        assertEquals(List.of(), read.affectedBy(List.of("java/util/zip/ZipFile")));
+    }
+
+    @Test
+    void startsOverFromUnusableFiles() throws IOException {
+        assertNull(ReferenceIndex.read(directory.resolve("missing.bin")));
+        Path file = directory.resolve("index.bin");
+        index().write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        // Left part written
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(ReferenceIndex.read(file));
+        // Written in another format
+        bytes[3]++;
+        Files.write(file, bytes);
+        assertNull(ReferenceIndex.read(file));
+    }
+
+    private static List<String> sorted(List<String> strings) {
+        return strings.stream().sorted().toList();
+    }
+}
@@ -0,0 +1,59 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApplyBenchmark {
+    @Param({"10", "100", "1000"})
+    public int listSize;
+
+    @Param({"32", "1024", "65536"})
+    public int stringLength;
+
+    private List<String> classes;
+    private RootPackageTransformer transformer;
+    private String miss;
+    private String hit;
+
+    @Setup
+    public void setup() {
+        classes = BenchmarkData.classNames(listSize);
+        transformer = new RootPackageTransformer(classes);
+        miss = BenchmarkData.text(stringLength, classes, 0);
+        hit = BenchmarkData.text(stringLength, classes, 8);
+    }
+
+    @Benchmark
+    public RootPackageTransformer construct() {
+        return new RootPackageTransformer(classes);
+    }
+
+    @Benchmark
+    public String applyNoMatch() {
+        return transformer.apply(miss);
+    }
+
+    @Benchmark
+    public String applyWithMatches() {
+        return transformer.apply(hit);
+    }
+}
@@ -0,0 +1,132 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.RootPackage;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic inputs shared by the benchmarks. Everything is generated from a fixed seed so that runs are comparable.
+ */
+final class BenchmarkData {
+    private static final String[] FILLER = {
+        "Ljava/lang/Object;", "(Ljava/lang/String;I)V", "java/util/List", "Code", "LineNumberTable",
+        "org/codehaus/groovy/runtime/ScriptBytecodeAdapter", " ", ";", "com/example/other/Unrelated", "value"
+    };
+
+    private BenchmarkData() {}
+
+    static List<String> classNames(int count) {
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add("com/example/pkg" + (i % 50) + "/Relocated" + i);
+        }
+        return names;
+    }
+
+    /**
+     * Builds text of roughly the given length from constant-pool-like fragments, mentioning one of the given classes
+     * about once in every {@code hitEvery} fragments, or never if it is zero.
+     */
+    static String text(int length, List<String> classes, int hitEvery) {
+        Random random = new Random(length * 31L + hitEvery);
+        StringBuilder builder = new StringBuilder(length + 64);
+        int fragment = 0;
+        while (builder.length() < length) {
+            if (hitEvery > 0 && ++fragment % hitEvery == 0) {
+                String target = classes.get(random.nextInt(classes.size()));
+                builder.append(random.nextBoolean() ? target : target.replace('/', '.'));
+            } else {
+                builder.append(FILLER[random.nextInt(FILLER.length)]);
+            }
+        }
+        return builder.toString();
+    }
+
+    static byte[] jdkClass(String name) throws IOException {
+        try (InputStream is = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+            if (is == null) {
+                throw new IOException("Could not find class " + name);
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    /**
+     * Generates a class with a little code, optionally marked with {@link RootPackage}.
+     */
+    static byte[] generatedClass(String name, boolean annotated) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        if (annotated) {
+            writer.visitAnnotation(Type.getDescriptor(RootPackage.class), false).visitEnd();
+        }
+        var init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+        for (int i = 0; i < 8; i++) {
+            var method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(Ljava/lang/String;)Ljava/lang/String;", null, null);
+            method.visitCode();
+            method.visitVarInsn(Opcodes.ALOAD, 1);
+            method.visitLdcInsn(name + i);
+            method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;", false);
+            method.visitInsn(Opcodes.ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writes a classes directory in which one class in every {@code annotatedEvery} is marked with {@link RootPackage}.
+     */
+    static List<Path> writeClasses(Path directory, int count, int annotatedEvery) throws IOException {
+        List<Path> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "com/example/pkg" + (i % 50) + "/Generated" + i;
+            Path path = directory.resolve(name + ".class");
+            Files.createDirectories(path.getParent());
+            Files.write(path, generatedClass(name, i % annotatedEvery == 0));
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (var stream = Files.walk(directory)) {
+            for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static void copyRecursively(Path from, Path to) throws IOException {
+        try (var stream = Files.walk(from)) {
+            for (Path path : stream.toList()) {
+                Path target = to.resolve(from.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.transform.ParallelTasks;
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans a synthetic classes directory for {@code @RootPackage} classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassesToMoveBenchmark {
+    @Param({"1000", "10000"})
+    public int classCount;
+
+    private Path directory;
+    private List<Path> paths;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("rootpackagetransformer-classes");
+        paths = BenchmarkData.writeClasses(directory, classCount, 20);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public RootPackageTransformer classesToMove() throws IOException {
+        return RootPackageTransformer.classesToMove(paths);
+    }
+
+    @Benchmark
+    public RootPackageTransformer classesToMoveParallel() throws IOException {
+        return RootPackageTransformer.classesToMove(paths, ParallelTasks.defaultParallelism());
+    }
+}
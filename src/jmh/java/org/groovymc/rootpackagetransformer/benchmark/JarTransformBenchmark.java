@@ -0,0 +1,93 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.transform.JarTransformer;
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.groovymc.rootpackagetransformer.transform.TransformMetrics;
+import org.groovymc.rootpackagetransformer.transform.TransformPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Transforms a whole jar of synthetic and JDK classes with {@link JarTransformer}, the batch path the plugin uses for
+ * jars. Each class goes from the zip through the pipeline and back out, so this measures reading, rewriting and writing
+ * together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JarTransformBenchmark {
+    private static final String[] JDK_CLASSES = {
+        "java/lang/String", "java/util/concurrent/ConcurrentHashMap", "java/lang/Thread", "java/util/stream/Collectors"
+    };
+    private static final List<String> RELOCATED = List.of("java/util/Map", "java/util/List");
+
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private JarTransformer transformer;
+    private Path directory;
+    private Path input;
+    private Path output;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("rootpackagetransformer-jar");
+        Path classes = directory.resolve("classes");
+        List<Path> paths = BenchmarkData.writeClasses(classes, classCount, 10);
+        List<String> moved = new ArrayList<>(RELOCATED);
+        input = directory.resolve("input.jar");
+        try (var os = new ZipOutputStream(Files.newOutputStream(input))) {
+            for (int i = 0; i < paths.size(); i++) {
+                String name = classes.relativize(paths.get(i)).toString().replace('\\', '/');
+                if (i % 10 == 0) {
+                    moved.add(name.substring(0, name.length() - ".class".length()));
+                }
+                os.putNextEntry(new ZipEntry(name));
+                os.write(Files.readAllBytes(paths.get(i)));
+                os.closeEntry();
+            }
+            for (String name : JDK_CLASSES) {
+                os.putNextEntry(new ZipEntry(name + ".class"));
+                os.write(BenchmarkData.jdkClass(name));
+                os.closeEntry();
+            }
+        }
+        output = directory.resolve("output.jar");
+        transformer = new JarTransformer(new RootPackageTransformer(moved), TransformMetrics.NONE, false, parallelism, TransformPipeline.defaultMemoryBudget());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void transformJar() throws IOException {
+        transformer.transform(input, output);
+    }
+}
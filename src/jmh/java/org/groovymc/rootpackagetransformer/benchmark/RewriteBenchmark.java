@@ -0,0 +1,115 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.transform.ConstantPoolRewriter;
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites real class files from the running JDK, relocating a few of the collection types they reference. Besides
+ * rewriting classes already in memory, they are rewritten as streamed, and as read from files the way the plugin's
+ * transform task reads them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteBenchmark {
+    private static final String[] CLASSES = {
+        "java/lang/String", "java/util/HashMap", "java/util/concurrent/ConcurrentHashMap", "java/lang/Thread",
+        "java/util/stream/Collectors", "java/util/ArrayList"
+    };
+    private static final List<String> RELOCATED = List.of("java/util/Map", "java/util/HashMap", "java/util/List");
+
+    @Param({"0", "100", "1000"})
+    public int extraListSize;
+
+    @Param({"0", "8192"})
+    public int cacheCapacity;
+
+    private ConstantPoolRewriter rewriter;
+    private byte[][] classes;
+    private byte[][] unchanged;
+    private Path directory;
+    private Path[] files;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> list = new ArrayList<>(RELOCATED);
+        list.addAll(BenchmarkData.classNames(extraListSize));
+        rewriter = new ConstantPoolRewriter(new RootPackageTransformer(list, cacheCapacity));
+        classes = new byte[CLASSES.length][];
+        for (int i = 0; i < CLASSES.length; i++) {
+            classes[i] = BenchmarkData.jdkClass(CLASSES[i]);
+        }
+        unchanged = new byte[CLASSES.length][];
+        for (int i = 0; i < CLASSES.length; i++) {
+            unchanged[i] = BenchmarkData.generatedClass("com/example/unchanged/Generated" + i, false);
+        }
+        directory = Files.createTempDirectory("rootpackagetransformer-rewrite");
+        files = new Path[CLASSES.length];
+        for (int i = 0; i < CLASSES.length; i++) {
+            files[i] = directory.resolve(i + ".class");
+            Files.write(files[i], classes[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public void rewriteBytes(Blackhole blackhole) {
+        for (byte[] bytes : classes) {
+            blackhole.consume(rewriter.rewrite(bytes));
+        }
+    }
+
+    @Benchmark
+    public void rewriteStream() throws IOException {
+        for (byte[] bytes : classes) {
+            rewriter.rewrite(new ByteArrayInputStream(bytes), name -> OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public void rewriteFiles(Blackhole blackhole) throws IOException {
+        for (Path file : files) {
+            blackhole.consume(rewriter.rewrite(Files.readAllBytes(file)));
+        }
+    }
+
+    /**
+     * Rewrites classes which mention nothing relocated, back to back on one thread. As these produce no output, the
+     * {@code gc} profiler should show next to no allocation once the per-thread buffers have grown to fit them.
+     */
+    @Benchmark
+    public void rewriteUnchanged(Blackhole blackhole) {
+        for (byte[] bytes : unchanged) {
+            blackhole.consume(rewriter.rewrite(bytes));
+        }
+    }
+}
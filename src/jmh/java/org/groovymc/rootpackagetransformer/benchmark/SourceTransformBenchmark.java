@@ -0,0 +1,79 @@
+package org.groovymc.rootpackagetransformer.benchmark;
+
+import org.groovymc.rootpackagetransformer.transform.RootPackageTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites a synthetic sources directory in place with {@link RootPackageTransformer#applyToAllInDirectory}. The
+ * directory is restored from a template before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceTransformBenchmark {
+    @Param({"200"})
+    public int fileCount;
+
+    @Param({"4096", "1048576"})
+    public int fileSize;
+
+    private RootPackageTransformer transformer;
+    private Path template;
+    private Path work;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> classes = BenchmarkData.classNames(fileCount);
+        transformer = new RootPackageTransformer(classes.subList(0, fileCount / 10));
+        template = Files.createTempDirectory("rootpackagetransformer-sources");
+        for (String name : classes) {
+            Path path = template.resolve(name + ".java");
+            Files.createDirectories(path.getParent());
+            String packageName = name.substring(0, name.lastIndexOf('/')).replace('/', '.');
+            String body = BenchmarkData.text(fileSize, classes, 64);
+            Files.writeString(path, "package " + packageName + ";\n\n/*\n" + body + "\n*/\n");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restore() throws IOException {
+        work = Files.createTempDirectory("rootpackagetransformer-work");
+        BenchmarkData.copyRecursively(template, work);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clean() throws IOException {
+        BenchmarkData.deleteRecursively(work);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(template);
+    }
+
+    @Benchmark
+    public void applyToAllInDirectory() throws IOException {
+        transformer.applyToAllInDirectory(work, "java"::equals);
+    }
+}
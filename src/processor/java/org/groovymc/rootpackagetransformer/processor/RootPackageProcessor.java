@@ -0,0 +1,72 @@
+package org.groovymc.rootpackagetransformer.processor;
+
+import org.groovymc.rootpackagetransformer.RootPackage;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the list of classes marked with {@link RootPackage} as they are compiled, so that the gradle plugin need not
+ * scan the compiled classes for them. The list is written to the generated sources directory rather than among the
+ * classes, so that it does not end up in jars beside the list the plugin puts there.
+ * <p>
+ * Registered with gradle as an aggregating processor: on an incremental compile, gradle hands it every marked class,
+ * including those which are not recompiled, so the list it writes is always complete. Nothing is written if no class is
+ * marked.
+ */
+@SupportedAnnotationTypes("org.groovymc.rootpackagetransformer.RootPackage")
+public class RootPackageProcessor extends AbstractProcessor {
+    /**
+     * The name of the list, relative to the generated sources directory.
+     */
+    public static final String LIST_FILE = "org.groovymc.rootpackagetransformer.transformedclasses";
+
+    private final Set<String> classes = new TreeSet<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(RootPackage.class)) {
+            if (element instanceof TypeElement type) {
+                // Internal names, as the plugin reads them from class files
+                classes.add(processingEnv.getElementUtils().getBinaryName(type).toString().replace('.', '/'));
+                originatingElements.add(type);
+            }
+        }
+        if (roundEnv.processingOver() && !classes.isEmpty()) {
+            write();
+        }
+        return false;
+    }
+
+    private void write() {
+        try {
+            var file = processingEnv.getFiler().createResource(StandardLocation.SOURCE_OUTPUT, "", LIST_FILE, originatingElements.toArray(Element[]::new));
+            try (Writer writer = file.openWriter()) {
+                for (String clazz : classes) {
+                    writer.write(clazz);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write "+LIST_FILE+": "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassPrefilterTest {
+    private static final String ALPHABET = "abcMovedXY/;$";
+
+    @Test
+    void neverRejectsANameAtAnyPosition() {
+        var random = new Random(0);
+        for (int round = 0; round < 200; round++) {
+            List<byte[]> names = new ArrayList<>();
+            for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                names.add(randomBytes(random, 1 + random.nextInt(12)));
+            }
+            var prefilter = new ClassPrefilter(names);
+            for (byte[] name : names) {
+                // Every offset of the name relative to the stride, within every offset of the range
+                for (int before = 0; before < 20; before++) {
+                    byte[] bytes = randomBytes(random, before + name.length + random.nextInt(20));
+                    System.arraycopy(name, 0, bytes, before, name.length);
+                    for (int offset = 0; offset <= before; offset++) {
+                        assertTrue(prefilter.mayMatch(bytes, offset, bytes.length - offset), "rejected " + text(name) + " at " + before + " in " + text(bytes) + " from " + offset);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void agreesWithANaiveSearch() {
+        var random = new Random(1);
+        for (int round = 0; round < 2000; round++) {
+            List<byte[]> names = new ArrayList<>();
+            for (int i = 1 + random.nextInt(3); i > 0; i--) {
+                names.add(randomBytes(random, 2 + random.nextInt(4)));
+            }
+            var prefilter = new ClassPrefilter(names);
+            byte[] bytes = randomBytes(random, random.nextInt(64));
+            // The prefilter checks the candidates it finds, so it is exact rather than only sound
+            assertEquals(contains(bytes, names), prefilter.mayMatch(bytes, 0, bytes.length), "for " + text(bytes));
+        }
+    }
+
+    @Test
+    void ignoresNamesOutsideTheRange() {
+        var prefilter = new ClassPrefilter(List.of(bytes("Moved")));
+        byte[] bytes = bytes("Moved____Moved");
+        assertTrue(prefilter.mayMatch(bytes, 0, bytes.length));
+        assertFalse(prefilter.mayMatch(bytes, 1, 8));
+        assertFalse(prefilter.mayMatch(bytes, 0, 4));
+        assertTrue(prefilter.mayMatch(bytes, 9, 5));
+    }
+
+    @Test
+    void looksForSingleBytesOnTheirOwn() {
+        var prefilter = new ClassPrefilter(List.of(bytes("X"), bytes("Moved")));
+        assertTrue(prefilter.mayMatch(bytes("abcXabc"), 0, 7));
+        assertFalse(prefilter.mayMatch(bytes("abcabc"), 0, 6));
+        assertFalse(new ClassPrefilter(List.of()).mayMatch(bytes("Moved"), 0, 5));
+    }
+
+    @Test
+    void passesEveryClassMentioningATarget() throws IOException {
+        List<byte[]> classes = new ArrayList<>();
+        for (String name : List.of(TestClasses.MOVED, TestClasses.MOVED + "$Nested", TestClasses.USES_MOVED, TestClasses.UNRELATED)) {
+            classes.add(TestClasses.read(name));
+        }
+        for (String name : List.of("java/lang/String", "java/util/HashMap", "java/util/ArrayList", "java/util/concurrent/ConcurrentHashMap")) {
+            classes.add(TestClasses.jdkClass(name));
+        }
+        int passed = 0;
+        int rejected = 0;
+        for (String target : List.of(TestClasses.MOVED, "java/util/HashMap", "java/util/AbstractList", "java/util/concurrent/locks/LockSupport")) {
+            var transformer = new RootPackageTransformer(List.of(target));
+            for (byte[] bytes : classes) {
+                // Targets are ASCII, so show up as they are in the raw bytes of any constant holding them
+                String raw = new String(bytes, StandardCharsets.ISO_8859_1);
+                boolean mentions = raw.contains(target) || raw.contains(target.replace('/', '.'));
+                if (transformer.mayApplyTo(bytes, 0, bytes.length)) {
+                    passed++;
+                } else {
+                    rejected++;
+                    assertFalse(mentions, "rejected a class mentioning " + target);
+                }
+            }
+        }
+        assertTrue(passed > 0 && rejected > 0, passed + " passed and " + rejected + " rejected");
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return bytes;
+    }
+
+    private static boolean contains(byte[] bytes, List<byte[]> names) {
+        for (byte[] name : names) {
+            for (int i = 0; i + name.length <= bytes.length; i++) {
+                if (Arrays.equals(bytes, i, i + name.length, name, 0, name.length)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String text(byte[] bytes) {
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,81 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConstantPoolCompactorTest {
+    @Test
+    void compactedClassesShrinkAndStillLoad() throws Exception {
+        var rewriter = new ConstantPoolRewriter(TestClasses.transformer());
+        var metrics = new TransformMetrics();
+        var compactingRewriter = new ConstantPoolRewriter(TestClasses.transformer(), metrics, true);
+        Map<String, byte[]> classes = new HashMap<>();
+        for (String name : new String[] {TestClasses.MOVED, TestClasses.MOVED + "$Nested", TestClasses.USES_MOVED}) {
+            byte[] original = TestClasses.read(name);
+            byte[] rewritten = rewriter.rewrite(original).bytes();
+            var compacted = compactingRewriter.rewrite(original);
+            assertTrue(constantCount(compacted.bytes()) <= constantCount(rewritten), name + " gained constants");
+            classes.put(compacted.name().replace('/', '.'), compacted.bytes());
+        }
+        // The class name and the string naming it both become "Moved", which compaction stores once
+        String usesMoved = TestClasses.USES_MOVED.replace('/', '.');
+        assertTrue(constantCount(classes.get(usesMoved)) < constantCount(rewriter.rewrite(TestClasses.read(TestClasses.USES_MOVED)).bytes()), "constant pool did not shrink");
+        assertTrue(metrics.get(TransformMetrics.Counter.CONSTANTS_REMOVED) > 0, "no constants counted as removed");
+
+        var loader = new BytesClassLoader(classes);
+        Object described = loader.loadClass(usesMoved).getMethod("describe").invoke(null);
+        assertEquals("moved to Moved and Moved$Nested", described);
+        Object quoted = loader.loadClass(usesMoved).getMethod("quoted").invoke(null);
+        assertEquals("Moved", quoted);
+    }
+
+    @Test
+    void leavesUnsupportedVersionsUncompacted() throws IOException {
+        byte[] bytes = TestClasses.read(TestClasses.UNRELATED);
+        // A major version far beyond any ASM knows
+        bytes[6] = (byte) 0x7F;
+        bytes[7] = (byte) 0xFF;
+        assertNull(ConstantPoolCompactor.compact(bytes));
+    }
+
+    private static int constantCount(byte[] bytes) {
+        return (bytes[8] & 0xFF) << 8 | (bytes[9] & 0xFF);
+    }
+
+    /**
+     * Defines the given classes itself, before asking its parent, so that they are loaded as transformed.
+     */
+    private static final class BytesClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        private BytesClassLoader(Map<String, byte[]> classes) {
+            super(BytesClassLoader.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    return super.loadClass(name, resolve);
+                }
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+    }
+}
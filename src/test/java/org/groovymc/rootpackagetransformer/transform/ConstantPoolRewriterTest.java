@@ -0,0 +1,242 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ConstantPoolRewriterTest {
+    private static final int ITERATIONS = 2000;
+
+    private final ConstantPoolRewriter rewriter = new ConstantPoolRewriter(TestClasses.transformer());
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void movesMarkedClasses() throws IOException {
+        var moved = rewriter.rewrite(TestClasses.read(TestClasses.MOVED));
+        assertNotNull(moved, "marked class was not rewritten");
+        assertEquals("Moved", moved.name());
+        var nested = rewriter.rewrite(TestClasses.read(TestClasses.MOVED + "$Nested"));
+        assertNotNull(nested, "nested class was not rewritten");
+        assertEquals("Moved$Nested", nested.name());
+    }
+
+    @Test
+    void leavesUnrelatedClassesUnchanged() throws IOException {
+        byte[] unrelated = TestClasses.read(TestClasses.UNRELATED);
+        assertNull(rewriter.rewrite(unrelated));
+        assertEquals(TestClasses.UNRELATED, rewriter.rewrittenName(unrelated));
+        assertEquals(TestClasses.UNRELATED, rewriter.className(unrelated));
+        assertEquals(TestClasses.MOVED, rewriter.className(TestClasses.read(TestClasses.MOVED)));
+    }
+
+    @Test
+    void streamsMatchRewritingInMemory() throws IOException {
+        byte[] original = TestClasses.read(TestClasses.USES_MOVED);
+        var out = new ByteArrayOutputStream();
+        String[] name = new String[1];
+        rewriter.rewrite(new ByteArrayInputStream(original), className -> {
+            name[0] = className;
+            return out;
+        });
+        var rewritten = rewriter.rewrite(original);
+        assertEquals(rewritten.name(), name[0]);
+        assertArrayEquals(rewritten.bytes(), out.toByteArray());
+    }
+
+    @Test
+    void channelsMatchRewritingInMemory() throws IOException {
+        // Small classes are read into the heap, large ones mapped; unchanged ones are transferred as they are
+        var classes = Map.of(
+                "moved", TestClasses.read(TestClasses.MOVED),
+                "usesMoved", TestClasses.read(TestClasses.USES_MOVED),
+                "unrelated", TestClasses.read(TestClasses.UNRELATED),
+                "largeUsesMoved", TestClasses.large(true),
+                "largeUnrelated", TestClasses.large(false)
+        );
+        for (var entry : classes.entrySet()) {
+            Path input = Files.write(directory.resolve(entry.getKey() + ".class"), entry.getValue());
+            Path output = directory.resolve(entry.getKey() + ".out");
+            String[] name = new String[1];
+            rewriter.rewrite(input, className -> {
+                name[0] = className;
+                return FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            });
+            var rewritten = rewriter.rewrite(entry.getValue());
+            assertEquals(rewritten == null ? rewriter.rewrittenName(entry.getValue()) : rewritten.name(), name[0], entry.getKey());
+            assertArrayEquals(rewritten == null ? entry.getValue() : rewritten.bytes(), Files.readAllBytes(output), entry.getKey());
+        }
+    }
+
+    @Test
+    void transfersWhichStallFallBackToWriting() throws IOException {
+        for (byte[] bytes : new byte[][] {TestClasses.read(TestClasses.UNRELATED), TestClasses.large(false)}) {
+            Path input = Files.write(directory.resolve("unrelated.class"), bytes);
+            var out = new StallingChannel(1);
+            rewriter.rewrite(input, className -> out);
+            assertArrayEquals(bytes, out.written.toByteArray());
+        }
+    }
+
+    @Test
+    void channelsWhichTakeNothingFail() throws IOException {
+        Path input = Files.write(directory.resolve("unrelated.class"), TestClasses.read(TestClasses.UNRELATED));
+        assertThrows(IOException.class, () -> rewriter.rewrite(input, className -> new StallingChannel(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Takes nothing for the first few writes, as a non-blocking channel may.
+     */
+    private static final class StallingChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int stalls;
+
+        StallingChannel(int stalls) {
+            this.stalls = stalls;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            if (stalls > 0) {
+                stalls--;
+                return 0;
+            }
+            int length = src.remaining();
+            byte[] bytes = new byte[length];
+            src.get(bytes);
+            written.writeBytes(bytes);
+            return length;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Buffers are reused from one class to the next on each thread, so nothing of a larger class rewritten before may
+     * leak into a smaller one.
+     */
+    @Test
+    void reusedBuffersDoNotCarryOver() throws IOException {
+        byte[] usesMoved = TestClasses.read(TestClasses.USES_MOVED);
+        byte[] expected = rewriter.rewrite(usesMoved).bytes();
+        // Grows the buffers well past the size of the fixture, through both entry points
+        byte[] large = TestClasses.jdkClass("java/util/concurrent/ConcurrentHashMap");
+        rewriter.rewrite(new ByteArrayInputStream(large), className -> new ByteArrayOutputStream());
+        rewriter.rewrite(large);
+        assertArrayEquals(expected, rewriter.rewrite(usesMoved).bytes());
+        var out = new ByteArrayOutputStream();
+        rewriter.rewrite(new ByteArrayInputStream(usesMoved), className -> out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    void batchesMatchRewritingOneByOne() throws IOException {
+        List<byte[]> classes = List.of(
+                TestClasses.read(TestClasses.MOVED),
+                TestClasses.jdkClass("java/util/concurrent/ConcurrentHashMap"),
+                TestClasses.read(TestClasses.USES_MOVED),
+                TestClasses.read(TestClasses.UNRELATED)
+        );
+        List<ConstantPoolRewriter.RewrittenClass> results = new ArrayList<>();
+        List<byte[]> inputs = new ArrayList<>();
+        rewriter.rewriteAll(classes, bytes -> bytes, (input, rewritten) -> {
+            inputs.add(input);
+            results.add(rewritten);
+        });
+        assertEquals(classes, inputs);
+        for (int i = 0; i < classes.size(); i++) {
+            var expected = rewriter.rewrite(classes.get(i));
+            if (expected == null) {
+                assertNull(results.get(i));
+            } else {
+                assertEquals(expected.name(), results.get(i).name());
+                assertArrayEquals(expected.bytes(), results.get(i).bytes());
+            }
+        }
+    }
+
+    @Test
+    void steadyStateAllocatesLittleMoreThanTheOutput() throws IOException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(), "allocations cannot be measured");
+        byte[] usesMoved = TestClasses.read(TestClasses.USES_MOVED);
+        byte[] unrelated = TestClasses.read(TestClasses.UNRELATED);
+        int outputSize = rewriter.rewrite(usesMoved).bytes().length;
+        for (int i = 0; i < ITERATIONS; i++) {
+            rewriter.rewrite(usesMoved);
+            rewriter.rewrite(unrelated);
+        }
+        long start = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            rewriter.rewrite(usesMoved);
+            rewriter.rewrite(unrelated);
+        }
+        long perIteration = (threads.getCurrentThreadAllocatedBytes() - start) / ITERATIONS;
+        // Besides the output, each rewritten class only allocates its name and the record holding both
+        assertTrue(perIteration < outputSize + 1024, "allocated " + perIteration + " bytes per iteration for " + outputSize + " bytes of output");
+    }
+
+    @Test
+    void batchesAllocateLittleMoreThanTheOutput() throws IOException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled(), "allocations cannot be measured");
+        byte[] usesMoved = TestClasses.read(TestClasses.USES_MOVED);
+        byte[] unrelated = TestClasses.read(TestClasses.UNRELATED);
+        int outputSize = rewriter.rewrite(usesMoved).bytes().length;
+        try (var batch = rewriter.batch()) {
+            for (int i = 0; i < ITERATIONS; i++) {
+                batch.rewrite(usesMoved);
+                batch.rewrite(unrelated);
+            }
+            long start = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < ITERATIONS; i++) {
+                batch.rewrite(usesMoved);
+                batch.rewrite(unrelated);
+            }
+            long perIteration = (threads.getCurrentThreadAllocatedBytes() - start) / ITERATIONS;
+            assertTrue(perIteration < outputSize + 1024, "allocated " + perIteration + " bytes per iteration for " + outputSize + " bytes of output");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.apache.commons.compress.archivers.zip.X5455_ExtendedTimestamp;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JarTransformerTest {
+    private static final long TIME = 1_600_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rewrittenEntriesKeepTheirMetadata() throws IOException {
+        Path input = directory.resolve("input.jar");
+        try (var os = new ZipArchiveOutputStream(input)) {
+            var moved = new ZipArchiveEntry(TestClasses.MOVED + ".class");
+            moved.setMethod(ZipArchiveEntry.STORED);
+            moved.setTime(TIME);
+            moved.setComment("marked");
+            moved.setUnixMode(0100755);
+            var timestamp = new X5455_ExtendedTimestamp();
+            timestamp.setModifyJavaTime(new Date(TIME));
+            moved.addExtraField(timestamp);
+            write(os, moved, TestClasses.read(TestClasses.MOVED));
+            write(os, new ZipArchiveEntry(TestClasses.USES_MOVED + ".class"), TestClasses.read(TestClasses.USES_MOVED));
+            write(os, new ZipArchiveEntry(TestClasses.UNRELATED + ".class"), TestClasses.read(TestClasses.UNRELATED));
+        }
+
+        Path output = directory.resolve("output.jar");
+        var metrics = new TransformMetrics();
+        new JarTransformer(TestClasses.transformer(), metrics, false, 2, TransformPipeline.defaultMemoryBudget()).transform(input, output);
+
+        var rewriter = new ConstantPoolRewriter(TestClasses.transformer());
+        try (var zip = ZipFile.builder().setPath(output).get()) {
+            assertNull(zip.getEntry(TestClasses.MOVED + ".class"), "marked class left in place");
+            var moved = zip.getEntry("Moved.class");
+            assertNotNull(moved, "marked class not moved");
+            assertEquals(ZipArchiveEntry.STORED, moved.getMethod());
+            assertEquals(TIME, moved.getTime());
+            assertEquals("marked", moved.getComment());
+            assertEquals(0100755, moved.getUnixMode());
+            assertNotNull(moved.getExtraField(X5455_ExtendedTimestamp.HEADER_ID), "extended timestamp dropped");
+            try (var is = zip.getInputStream(moved)) {
+                assertArrayEquals(rewriter.rewrite(TestClasses.read(TestClasses.MOVED)).bytes(), is.readAllBytes());
+            }
+
+            var usesMoved = zip.getEntry(TestClasses.USES_MOVED + ".class");
+            assertEquals(ZipArchiveEntry.DEFLATED, usesMoved.getMethod());
+            try (var is = zip.getInputStream(usesMoved)) {
+                assertArrayEquals(rewriter.rewrite(TestClasses.read(TestClasses.USES_MOVED)).bytes(), is.readAllBytes());
+            }
+        }
+        assertEquals(2, metrics.get(TransformMetrics.Counter.CLASSES_REWRITTEN));
+        assertEquals(1, metrics.get(TransformMetrics.Counter.CLASSES_PASSED_THROUGH));
+    }
+
+    @Test
+    void scansJarsWithoutAListOnAnyNumberOfThreads() throws IOException {
+        Path input = directory.resolve("input.jar");
+        try (var os = new ZipArchiveOutputStream(input)) {
+            for (String name : List.of(TestClasses.MOVED, TestClasses.MOVED + "$Nested", TestClasses.USES_MOVED, TestClasses.UNRELATED)) {
+                write(os, new ZipArchiveEntry(name + ".class"), TestClasses.read(name));
+            }
+        }
+        for (int parallelism : new int[] {1, 4}) {
+            assertEquals(List.of(TestClasses.MOVED), JarTransformer.classesToMove(input, parallelism).getTargetClasses(), "on " + parallelism + " threads");
+        }
+    }
+
+    private static void write(ZipArchiveOutputStream os, ZipArchiveEntry entry, byte[] bytes) throws IOException {
+        os.putArchiveEntry(entry);
+        os.write(bytes);
+        os.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,114 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplacementMatcherTest {
+    private static final List<RootPackageTransformer.Replacement> OVERLAPPING = List.of(
+            new RootPackageTransformer.Replacement("a/b/C", "C"),
+            new RootPackageTransformer.Replacement("a/b/CD", "CD"),
+            new RootPackageTransformer.Replacement("b/CDE", "X"),
+            new RootPackageTransformer.Replacement("CDEF", "Y")
+    );
+
+    @Test
+    void prefersTheLongestOfMatchesStartingTogether() {
+        var matcher = ReplacementMatcher.forChars(OVERLAPPING);
+        assertEquals("C;", matcher.replace("a/b/C;"));
+        assertEquals("CD;", matcher.replace("a/b/CD;"));
+        assertEquals("CDx", matcher.replace("a/b/CDx"));
+    }
+
+    @Test
+    void prefersTheLeftmostOfOverlappingMatches() {
+        var matcher = ReplacementMatcher.forChars(OVERLAPPING);
+        // b/CDE and CDEF both end later, but start after a/b/CD does
+        assertEquals("CDEF", matcher.replace("a/b/CDEF"));
+        assertEquals("zXF", matcher.replace("zb/CDEF"));
+        assertEquals("xY", matcher.replace("xCDEF"));
+    }
+
+    @Test
+    void carriesOnAfterEachMatch() {
+        var matcher = ReplacementMatcher.forChars(OVERLAPPING);
+        assertEquals("(C;CD;)V", matcher.replace("(a/b/C;a/b/CD;)V"));
+        assertEquals("CC", matcher.replace("a/b/Ca/b/C"));
+    }
+
+    @Test
+    void matchesLikeANaiveSearch() {
+        var matcher = ReplacementMatcher.forChars(OVERLAPPING);
+        var random = new Random(0);
+        String alphabet = "ab/CDEF";
+        for (int i = 0; i < 10_000; i++) {
+            var builder = new StringBuilder();
+            for (int j = random.nextInt(24); j > 0; j--) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String input = builder.toString();
+            assertEquals(naiveReplace(input, OVERLAPPING), matcher.replace(input), "for " + input);
+        }
+    }
+
+    @Test
+    void bytesMatchChars() {
+        var replacements = List.of(
+                new RootPackageTransformer.Replacement("a/b/Ünïcödé", "Ünïcödé"),
+                new RootPackageTransformer.Replacement("a/b/C", "C"),
+                new RootPackageTransformer.Replacement("a/b/C\0", "Nul")
+        );
+        var chars = ReplacementMatcher.forChars(replacements);
+        var bytes = ReplacementMatcher.forModifiedUtf8(replacements);
+        for (String input : List.of("La/b/Ünïcödé;", "a/b/C\0a/b/C", "xa/b/Ünïcödéa/b/C")) {
+            byte[] encoded = ModifiedUtf8.encode(input);
+            // Offsets into a larger array, as for a constant within a class file
+            byte[] padded = new byte[encoded.length + 4];
+            System.arraycopy(encoded, 0, padded, 2, encoded.length);
+            assertArrayEquals(ModifiedUtf8.encode(chars.replace(input)), bytes.replace(padded, 2, encoded.length), "for " + input);
+        }
+        assertNull(bytes.replace(ModifiedUtf8.encode("a/b/D"), 0, 5));
+    }
+
+    @Test
+    void streamsMatchesAcrossBufferBoundaries() throws IOException {
+        var matcher = ReplacementMatcher.forChars(OVERLAPPING);
+        for (int shift = 0; shift < 8; shift++) {
+            String input = "x".repeat(ReplacementMatcher.STREAM_BUFFER - 4 + shift) + "a/b/CD;a/b/C";
+            var writer = new StringWriter();
+            assertTrue(matcher.replace(new StringReader(input), writer));
+            assertEquals(matcher.replace(input), writer.toString(), "shifted by " + shift);
+        }
+        assertFalse(matcher.replace(new StringReader("x".repeat(ReplacementMatcher.STREAM_BUFFER * 2)), null));
+    }
+
+    private static String naiveReplace(String input, List<RootPackageTransformer.Replacement> replacements) {
+        var builder = new StringBuilder();
+        int i = 0;
+        while (i < input.length()) {
+            RootPackageTransformer.Replacement longest = null;
+            for (var replacement : replacements) {
+                if (input.startsWith(replacement.target(), i) && (longest == null || replacement.target().length() > longest.target().length())) {
+                    longest = replacement;
+                }
+            }
+            if (longest == null) {
+                builder.append(input.charAt(i++));
+            } else {
+                builder.append(longest.replacement());
+                i += longest.target().length();
+            }
+        }
+        return builder.toString();
+    }
+}
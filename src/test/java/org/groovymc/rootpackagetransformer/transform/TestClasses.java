@@ -0,0 +1,60 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The compiled classes of the test source set, which tests transform as real inputs.
+ */
+final class TestClasses {
+    static final String FIXTURES = "org/groovymc/rootpackagetransformer/transform/fixtures/";
+    static final String MOVED = FIXTURES + "Moved";
+    static final String USES_MOVED = FIXTURES + "UsesMoved";
+    static final String UNRELATED = FIXTURES + "Unrelated";
+
+    private TestClasses() {}
+
+    static Path directory() {
+        return Path.of(System.getProperty("org.groovymc.rootpackagetransformer.testclasses"));
+    }
+
+    static byte[] read(String name) throws IOException {
+        return Files.readAllBytes(directory().resolve(name + ".class"));
+    }
+
+    static byte[] jdkClass(String name) throws IOException {
+        try (InputStream is = ClassLoader.getSystemResourceAsStream(name + ".class")) {
+            if (is == null) {
+                throw new IOException("Could not find class " + name);
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    /**
+     * {@return a class large enough that {@link ConstantPoolRewriter} maps it rather than reading it}
+     * @param mentionsMoved whether the class refers to the marked fixture, and so is rewritten
+     */
+    static byte[] large(boolean mentionsMoved) {
+        var writer = new ClassWriter(0);
+        writer.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, FIXTURES + "Large", null, "java/lang/Object", null);
+        if (mentionsMoved) {
+            writer.visitField(Opcodes.ACC_PUBLIC, "moved", "L" + MOVED + ";", null, null).visitEnd();
+        }
+        for (int i = 0; i < (int) ConstantPoolRewriter.MAPPING_THRESHOLD / 8; i++) {
+            writer.newUTF8("padding" + i);
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    static RootPackageTransformer transformer() {
+        return new RootPackageTransformer(List.of(MOVED));
+    }
+}
@@ -0,0 +1,123 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransformPipelineTest {
+    private static final int ITEMS = 500;
+
+    private static final List<Integer> INPUT = IntStream.range(0, ITEMS).boxed().toList();
+
+    @Test
+    void writesInOrderWhenAsked() throws IOException {
+        List<Integer> written = new ArrayList<>();
+        new TransformPipeline(4, 1 << 20).runOrdered(INPUT, item -> 1024, item -> item, TransformPipelineTest::slowly, written::add);
+        assertEquals(INPUT, written);
+    }
+
+    @Test
+    void writesEveryItemOnceOtherwise() throws IOException {
+        List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+        new TransformPipeline(4, 1 << 20).run(INPUT, item -> 1024, item -> item, TransformPipelineTest::slowly, written::add);
+        List<Integer> sorted = new ArrayList<>(written);
+        Collections.sort(sorted);
+        assertEquals(INPUT, sorted);
+    }
+
+    @Test
+    void batchesWriteInOrderWhenAsked() throws IOException {
+        List<Integer> written = new ArrayList<>();
+        Set<Thread> batches = ConcurrentHashMap.newKeySet();
+        new TransformPipeline(4, 1 << 20).runOrdered(INPUT, item -> 1024, item -> item, (Iterable<Integer> inputs, TransformPipeline.Sink<Integer> results) -> {
+            // One batch for each thread transforming
+            assertTrue(batches.add(Thread.currentThread()), "more than one batch on a thread");
+            for (Integer input : inputs) {
+                results.accept(slowly(input));
+            }
+        }, written::add);
+        assertEquals(INPUT, written);
+    }
+
+    @Test
+    void batchesMustPassOnEachResult() {
+        assertThrows(IllegalStateException.class, () -> new TransformPipeline(4, 1 << 20).run(INPUT, item -> 1024, item -> item, (Iterable<Integer> inputs, TransformPipeline.Sink<Integer> results) -> {
+            for (Integer input : inputs) {
+                if (input != ITEMS / 2) {
+                    results.accept(input);
+                }
+            }
+        }, item -> {}));
+    }
+
+    @Test
+    void keepsWithinTheBudget() throws IOException {
+        long budget = 16 << 10;
+        for (boolean ordered : new boolean[] {true, false}) {
+            var inFlight = new AtomicLong();
+            var peak = new AtomicLong();
+            // Whole kibibytes, as the budget is counted in
+            long[] weights = new Random(0).longs(ITEMS, 1, 5).map(k -> k << 10).toArray();
+            TransformPipeline.Stage<Integer, Integer> read = item -> {
+                peak.accumulateAndGet(inFlight.addAndGet(weights[item]), Math::max);
+                return item;
+            };
+            TransformPipeline.Sink<Integer> write = item -> inFlight.addAndGet(-weights[item]);
+            var pipeline = new TransformPipeline(8, budget);
+            if (ordered) {
+                pipeline.runOrdered(INPUT, item -> weights[item], read, TransformPipelineTest::slowly, write);
+            } else {
+                pipeline.run(INPUT, item -> weights[item], read, TransformPipelineTest::slowly, write);
+            }
+            assertEquals(0L, inFlight.get());
+            assertTrue(peak.get() <= budget, "held " + peak.get() + " bytes at once with a budget of " + budget);
+        }
+    }
+
+    @Test
+    void letsThroughItemsLargerThanTheBudget() throws IOException {
+        List<Integer> written = new ArrayList<>();
+        new TransformPipeline(4, 1 << 10).runOrdered(INPUT, item -> 1 << 20, item -> item, item -> item, written::add);
+        assertEquals(INPUT, written);
+    }
+
+    @Test
+    void rethrowsTheFirstFailure() {
+        var threads = ConcurrentHashMap.<Thread>newKeySet();
+        var e = assertThrows(IOException.class, () -> new TransformPipeline(4, 1 << 20).runOrdered(INPUT, item -> 1024, item -> item, item -> {
+            threads.add(Thread.currentThread());
+            if (item == ITEMS / 2) {
+                throw new IOException("failed on " + item);
+            }
+            return item;
+        }, item -> {}));
+        assertEquals("failed on " + ITEMS / 2, e.getMessage());
+        for (Thread thread : threads) {
+            assertTrue(!thread.isAlive() || thread == Thread.currentThread(), "left " + thread + " running");
+        }
+    }
+
+    private static Integer slowly(Integer item) {
+        // Later items often finish first, which ordered writes have to wait out
+        if (item % 7 == 0) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return item;
+    }
+}
@@ -0,0 +1,12 @@
+package org.groovymc.rootpackagetransformer.transform.fixtures;
+
+import org.groovymc.rootpackagetransformer.RootPackage;
+
+@RootPackage
+public class Moved {
+    public static String describe() {
+        return "moved";
+    }
+
+    public static class Nested {}
+}
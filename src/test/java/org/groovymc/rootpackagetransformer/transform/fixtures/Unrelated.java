@@ -0,0 +1,7 @@
+package org.groovymc.rootpackagetransformer.transform.fixtures;
+
+public class Unrelated {
+    public static String describe() {
+        return "unrelated to org.groovymc.rootpackagetransformer.transform.fixtures.Move";
+    }
+}
@@ -0,0 +1,28 @@
+package org.groovymc.rootpackagetransformer.transform.fixtures;
+
+import java.util.List;
+
+/**
+ * Refers to {@link Moved} in each way the transformer rewrites: as a type, in descriptors and signatures, and by name in
+ * strings.
+ */
+public class UsesMoved {
+    private final Moved moved = new Moved();
+    private final List<Moved.Nested> nested = List.of(new Moved.Nested());
+
+    public static String describe() {
+        return Moved.describe() + " to " + Moved.class.getName() + " and " + Moved.Nested.class.getName();
+    }
+
+    public static String quoted() {
+        return "org.groovymc.rootpackagetransformer.transform.fixtures.Moved";
+    }
+
+    public Moved moved() {
+        return moved;
+    }
+
+    public List<Moved.Nested> nested() {
+        return nested;
+    }
+}
@@ -0,0 +1,117 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Rules out classes which cannot mention any class to move, by looking for the simple names of those classes anywhere
+ * in the raw class file. Every constant which names a moved class, in internal or binary form, contains its simple name,
+ * and constants are stored as they are in the class file, so a class with no hit is left unchanged by rewriting.
+ * <p>
+ * The search does not look at every byte. All names are at least {@code window} bytes long, so any occurrence covers
+ * {@code window - 1} consecutive pairs of bytes; stepping through the file that many bytes at a time lands on one of
+ * them. Only where the pair landed on appears in the start of some name are the nearby starting points checked.
+ */
+final class ClassPrefilter {
+    private static final int MAX_WINDOW = 8;
+
+    private final int window;
+    // Pairs of bytes found among the first window bytes of some name, and those which start one, as bitsets
+    private final long[] innerPairs = new long[1 << 10];
+    private final long[] firstPairs = new long[1 << 10];
+    // Names by their first pair, sorted by that pair
+    private final int[] bucketPairs;
+    private final byte[][][] buckets;
+    // Set only if some name is a single byte, which is then looked for on its own
+    private final boolean[] singles;
+
+    ClassPrefilter(Collection<byte[]> names) {
+        TreeMap<Integer, List<byte[]>> byPair = new TreeMap<>();
+        boolean[] singles = null;
+        int window = MAX_WINDOW;
+        for (byte[] name : names) {
+            if (name.length == 1) {
+                if (singles == null) {
+                    singles = new boolean[256];
+                }
+                singles[name[0] & 0xFF] = true;
+            } else if (name.length > 1) {
+                window = Math.min(window, name.length);
+                byPair.computeIfAbsent(pair(name, 0), k -> new ArrayList<>()).add(name);
+            }
+        }
+        this.window = window;
+        this.singles = singles;
+        this.bucketPairs = new int[byPair.size()];
+        this.buckets = new byte[byPair.size()][][];
+        int index = 0;
+        for (var entry : byPair.entrySet()) {
+            bucketPairs[index] = entry.getKey();
+            buckets[index++] = entry.getValue().toArray(byte[][]::new);
+            set(firstPairs, entry.getKey());
+            for (byte[] name : entry.getValue()) {
+                for (int i = 0; i < window - 1; i++) {
+                    set(innerPairs, pair(name, i));
+                }
+            }
+        }
+    }
+
+    private static int pair(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF) << 8 | (bytes[index + 1] & 0xFF);
+    }
+
+    private static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * {@return whether any name occurs in the given range, or may do so}
+     */
+    boolean mayMatch(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        if (singles != null) {
+            for (int i = offset; i < end; i++) {
+                if (singles[bytes[i] & 0xFF]) {
+                    return true;
+                }
+            }
+        }
+        if (buckets.length == 0) {
+            return false;
+        }
+        int step = window - 1;
+        for (int j = offset + window - 2; j < end - 1; j += step) {
+            if (!get(innerPairs, pair(bytes, j))) {
+                continue;
+            }
+            // Any occurrence covering this pair starts at most a step before it
+            for (int start = Math.max(offset, j - window + 2); start <= j; start++) {
+                if (matchesAt(bytes, start, end)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAt(byte[] bytes, int start, int end) {
+        int pair = pair(bytes, start);
+        if (!get(firstPairs, pair)) {
+            return false;
+        }
+        for (byte[] name : buckets[Arrays.binarySearch(bucketPairs, pair)]) {
+            if (start + name.length <= end && Arrays.equals(bytes, start, start + name.length, name, 0, name.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+/**
+ * Rebuilds the constant pool of a rewritten class. Rewriting can leave a class with several identical Utf8 entries,
+ * and so with identical Class and NameAndType entries built on them, and with entries nothing refers to any more.
+ * Writing the class out afresh lets ASM lay out a pool holding each constant once, and remap every index which refers
+ * to it.
+ */
+final class ConstantPoolCompactor {
+    private ConstantPoolCompactor() {}
+
+    /**
+     * @return the compacted class, or {@code null} if it cannot be compacted safely
+     */
+    static byte[] compact(byte[] bytes) {
+        ClassReader reader;
+        try {
+            reader = new ClassReader(bytes);
+        } catch (IllegalArgumentException e) {
+            // A class file version newer than ASM supports, which can still be rewritten, just not rebuilt
+            return null;
+        }
+        // Not passing the reader makes the writer build its constant pool from scratch rather than copy the original
+        ClassWriter writer = new ClassWriter(0);
+        UnknownAttributeDetector detector = new UnknownAttributeDetector(writer);
+        reader.accept(detector, 0);
+        // The contents of attributes ASM does not know are copied verbatim, and may hold indices into the old pool
+        if (detector.found) {
+            return null;
+        }
+        return writer.toByteArray();
+    }
+
+    private static final class UnknownAttributeDetector extends ClassVisitor {
+        private boolean found;
+
+        private UnknownAttributeDetector(ClassVisitor delegate) {
+            super(Opcodes.ASM9, delegate);
+        }
+
+        private void check(Attribute attribute) {
+            if (attribute.isUnknown()) {
+                found = true;
+            }
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            check(attribute);
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            return new FieldVisitor(Opcodes.ASM9, super.visitField(access, name, descriptor, signature, value)) {
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    check(attribute);
+                    super.visitAttribute(attribute);
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    check(attribute);
+                    super.visitAttribute(attribute);
+                }
+            };
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            return new RecordComponentVisitor(Opcodes.ASM9, super.visitRecordComponent(name, descriptor, signature)) {
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    check(attribute);
+                    super.visitAttribute(attribute);
+                }
+            };
+        }
+    }
+}
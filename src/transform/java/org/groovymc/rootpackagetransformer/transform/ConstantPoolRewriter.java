@@ -1,106 +1,585 @@
 package org.groovymc.rootpackagetransformer.transform;
 
-import org.objectweb.asm.ClassReader;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Function;
 
 public class ConstantPoolRewriter {
+    // Below this size, reading a class into the heap is cheaper than mapping it
+    static final long MAPPING_THRESHOLD = 1 << 16;
+
     private final RootPackageTransformer transformer;
+    private final TransformMetrics metrics;
+    private final boolean compact;
 
     public ConstantPoolRewriter(RootPackageTransformer transformer) {
+        this(transformer, TransformMetrics.NONE);
+    }
+
+    public ConstantPoolRewriter(RootPackageTransformer transformer, TransformMetrics metrics) {
+        this(transformer, metrics, false);
+    }
+
+    /**
+     * @param compact whether to rebuild the constant pool of every rewritten class, merging the duplicate constants
+     *                rewriting can leave behind and dropping unused ones; slower, but produces smaller classes
+     */
+    public ConstantPoolRewriter(RootPackageTransformer transformer, TransformMetrics metrics, boolean compact) {
         this.transformer = transformer;
+        this.metrics = metrics;
+        this.compact = compact;
     }
 
-    private record Target(int offset, int length, byte[] newValue) {}
+    public record RewrittenClass(String name, byte[] bytes) {}
 
     @FunctionalInterface
     public interface Writer {
         OutputStream forClass(String name) throws IOException;
     }
 
+    @FunctionalInterface
+    public interface ChannelWriter {
+        GatheringByteChannel forClass(String name) throws IOException;
+    }
+
     public void rewrite(InputStream is, Writer writer) throws IOException {
-        byte[] bytes = is.readAllBytes();
-        ClassReader reader = new ClassReader(bytes);
-        List<Target> targets = new ArrayList<>();
-        String name = transformer.apply(reader.getClassName());
-        try (var os = writer.forClass(name)) {
-            for (int i = 1; i < reader.getItemCount(); i++) {
-                int offset = reader.getItem(i);
-                byte type = bytes[offset - 1];
-                if (type == 1) {
-                    // CONSTANT_Utf8_info
-                    int length = (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
-                    String original = readUtf8(offset + 2, length, bytes);
-                    String rewritten = transformer.apply(original);
-                    if (!original.equals(rewritten)) {
-                        byte[] newValue = writeUtf8(rewritten);
-                        Target target = new Target(offset, length, newValue);
-                        targets.add(target);
-                    }
+        Scratch scratch = Scratch.acquire();
+        try {
+            long start = System.nanoTime();
+            ByteBuffer buffer = scratch.read(is);
+            int size = buffer.limit();
+            long read = System.nanoTime();
+            metrics.addTime(TransformMetrics.Timer.IO, read - start);
+            findTargets(buffer, scratch, true);
+            String name = rewrittenName(buffer, scratch);
+            long matched = System.nanoTime();
+            metrics.addTime(TransformMetrics.Timer.MATCH, matched - read);
+            record(size, scratch);
+            try (var os = writer.forClass(name)) {
+                if (scratch.targetCount == 0) {
+                    os.write(buffer.array(), 0, size);
+                } else if (compact) {
+                    os.write(compact(splice(buffer, size, scratch)));
+                } else {
+                    ByteBuffer rewritten = scratch.output(size + scratch.sizeDelta);
+                    splice(buffer, size, scratch, rewritten.array());
+                    os.write(rewritten.array(), 0, rewritten.limit());
                 }
             }
-            int soFar = 0;
-            for (Target target : targets) {
-                os.write(bytes, soFar, target.offset - soFar);
-                os.write(target.newValue.length >> 8);
-                os.write(target.newValue.length & 0xFF);
-                os.write(target.newValue);
-                soFar = target.offset + target.length + 2;
-            }
-            os.write(bytes, soFar, bytes.length - soFar);
-        }
-    }
-
-    private String readUtf8(int offset, int length, byte[] bytes) {
-        int current = offset;
-        int end = current + length;
-        int totalLength = 0;
-        char[] charBuffer = new char[length+2];
-        while (current < end) {
-            if (totalLength >= charBuffer.length) {
-                char[] newBuffer = new char[charBuffer.length + charBuffer.length / 2];
-                System.arraycopy(charBuffer, 0, newBuffer, 0, charBuffer.length);
-                charBuffer = newBuffer;
-            }
-            int currentByte = bytes[current++];
-            if ((currentByte & 0x80) == 0) {
-                charBuffer[totalLength++] = (char) (currentByte & 0x7F);
-            } else if ((currentByte & 0xE0) == 0xC0) {
-                charBuffer[totalLength++] =
-                        (char) (((currentByte & 0x1F) << 6) + (bytes[current++] & 0x3F));
-            } else {
-                charBuffer[totalLength++] =
-                        (char) (((currentByte & 0xF) << 12)
-                                + ((bytes[current++] & 0x3F) << 6)
-                                + (bytes[current++] & 0x3F));
-            }
-        }
-        return new String(charBuffer, 0, totalLength);
-    }
-
-    private byte[] writeUtf8(String value) {
-        int length = value.length();
-        byte[] bytes = new byte[length * 3];
-        int current = 0;
-        for (int i = 0; i < length; i++) {
-            char c = value.charAt(i);
-            if (c < 0x80 && c != 0) {
-                bytes[current++] = (byte) c;
-            } else if (c < 0x800) {
-                bytes[current++] = (byte) (0b11000000 | (c >> 6));
-                bytes[current++] = (byte) (0b10000000 | (c & 0b00111111));
+            metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - matched);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Reads a class and rewrites it in memory.
+     * @return the rewritten class, or {@code null} if rewriting would leave it unchanged
+     */
+    public RewrittenClass rewrite(InputStream is) throws IOException {
+        Scratch scratch = Scratch.acquire();
+        try {
+            long start = System.nanoTime();
+            ByteBuffer buffer = scratch.read(is);
+            long read = System.nanoTime();
+            metrics.addTime(TransformMetrics.Timer.IO, read - start);
+            return rewrite(buffer, scratch, read);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * {@return the name the given class will have once rewritten}
+     */
+    public String rewrittenName(byte[] bytes) {
+        Scratch scratch = Scratch.acquire();
+        try {
+            return rewrittenName(bytes, scratch);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    private String rewrittenName(byte[] bytes, Scratch scratch) {
+        return transformer.apply(className(bytes, scratch));
+    }
+
+    /**
+     * {@return the name of the given class as it is, read from its constant pool without parsing the rest of it}
+     */
+    public String className(byte[] bytes) {
+        Scratch scratch = Scratch.acquire();
+        try {
+            return className(bytes, scratch);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    private String className(byte[] bytes, Scratch scratch) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        findTargets(buffer, scratch, false);
+        return className(buffer, scratch);
+    }
+
+    /**
+     * {@return whether rewriting may change the given class} If not, the class is certain to come out of rewriting as
+     * it went in, under the same name; this is found by a quick scan of its bytes, without parsing it.
+     */
+    public boolean mayRewrite(byte[] bytes) {
+        return transformer.mayApplyTo(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Rewrites a class held in memory.
+     * @return the rewritten class, or {@code null} if rewriting would leave it unchanged
+     */
+    public RewrittenClass rewrite(byte[] bytes) {
+        Scratch scratch = Scratch.acquire();
+        try {
+            return rewrite(ByteBuffer.wrap(bytes), scratch, System.nanoTime());
+        } finally {
+            scratch.release();
+        }
+    }
+
+    @FunctionalInterface
+    public interface BatchSink<T> {
+        /**
+         * @param rewritten the rewritten class, or {@code null} if rewriting would leave it unchanged, or it was not to
+         *                  be rewritten at all
+         */
+        void accept(T input, RewrittenClass rewritten) throws IOException;
+    }
+
+    /**
+     * Rewrites many classes held in memory, as {@link #rewrite(byte[])} does, passing each on to the sink before
+     * moving on to the next. The whole batch is rewritten with one set of buffers.
+     * @param bytes the class to rewrite for each input, or {@code null} for one to pass on as it is
+     */
+    public <T> void rewriteAll(Iterable<? extends T> inputs, Function<? super T, byte[]> bytes, BatchSink<? super T> sink) throws IOException {
+        try (var batch = batch()) {
+            for (T input : inputs) {
+                byte[] original = bytes.apply(input);
+                sink.accept(input, original == null ? null : batch.rewrite(original));
+            }
+        }
+    }
+
+    /**
+     * Rewrites many class files, as {@link #rewrite(Path, ChannelWriter)} does, with one set of buffers.
+     */
+    public void rewriteAll(Iterable<Path> inputs, ChannelWriter writer) throws IOException {
+        try (var batch = batch()) {
+            for (Path input : inputs) {
+                batch.rewrite(input, writer);
+            }
+        }
+    }
+
+    /**
+     * {@return a batch, holding one set of buffers for the classes rewritten through it until it is closed} A batch
+     * belongs to the thread which opened it. Once its buffers have grown to fit the largest class, rewriting through it
+     * allocates only the rewritten classes themselves.
+     */
+    public Batch batch() {
+        return new Batch(Scratch.acquire());
+    }
+
+    public final class Batch implements AutoCloseable {
+        private Scratch scratch;
+
+        private Batch(Scratch scratch) {
+            this.scratch = scratch;
+        }
+
+        /**
+         * @see ConstantPoolRewriter#mayRewrite(byte[])
+         */
+        public boolean mayRewrite(byte[] bytes) {
+            return ConstantPoolRewriter.this.mayRewrite(bytes);
+        }
+
+        /**
+         * @see ConstantPoolRewriter#rewrite(byte[])
+         */
+        public RewrittenClass rewrite(byte[] bytes) {
+            return ConstantPoolRewriter.this.rewrite(ByteBuffer.wrap(bytes), scratch(), System.nanoTime());
+        }
+
+        /**
+         * @see ConstantPoolRewriter#rewrite(Path, ChannelWriter)
+         */
+        public void rewrite(Path input, ChannelWriter writer) throws IOException {
+            ConstantPoolRewriter.this.rewrite(input, writer, scratch());
+        }
+
+        /**
+         * @see ConstantPoolRewriter#className(byte[])
+         */
+        public String className(byte[] bytes) {
+            return ConstantPoolRewriter.this.className(bytes, scratch());
+        }
+
+        /**
+         * @see ConstantPoolRewriter#rewrittenName(byte[])
+         */
+        public String rewrittenName(byte[] bytes) {
+            return ConstantPoolRewriter.this.rewrittenName(bytes, scratch());
+        }
+
+        private Scratch scratch() {
+            if (scratch == null) {
+                throw new IllegalStateException("Batch is closed");
+            }
+            return scratch;
+        }
+
+        @Override
+        public void close() {
+            if (scratch != null) {
+                scratch.release();
+                scratch = null;
+            }
+        }
+    }
+
+    private RewrittenClass rewrite(ByteBuffer buffer, Scratch scratch, long start) {
+        // A renamed class always has its own name among the targets
+        findTargets(buffer, scratch, true);
+        metrics.addTime(TransformMetrics.Timer.MATCH, System.nanoTime() - start);
+        int size = buffer.limit();
+        record(size, scratch);
+        if (scratch.targetCount == 0) {
+            return null;
+        }
+        return new RewrittenClass(rewrittenName(buffer, scratch), compact(splice(buffer, size, scratch)));
+    }
+
+    /**
+     * Rewrites a class file without reading it into a heap array. Large files are memory-mapped; unchanged files are
+     * transferred straight from the input.
+     */
+    public void rewrite(Path input, ChannelWriter writer) throws IOException {
+        Scratch scratch = Scratch.acquire();
+        try {
+            rewrite(input, writer, scratch);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    private void rewrite(Path input, ChannelWriter writer, Scratch scratch) throws IOException {
+        long start = System.nanoTime();
+        try (var channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer;
+            if (size >= MAPPING_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
             } else {
-                bytes[current++] = (byte) (0b11100000 | (c >> 12));
-                bytes[current++] = (byte) (0b10000000 | ((c >> 6) & 0b00111111));
-                bytes[current++] = (byte) (0b10000000 | (c & 0b00111111));
+                buffer = scratch.input((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {}
+                buffer.flip();
+            }
+            // Reading a mapped file happens as it is parsed, so is counted as matching
+            long read = System.nanoTime();
+            metrics.addTime(TransformMetrics.Timer.IO, read - start);
+            try {
+                findTargets(buffer, scratch, true);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException(e.getMessage()+" in "+input, e);
+            }
+            String name = rewrittenName(buffer, scratch);
+            long matched = System.nanoTime();
+            metrics.addTime(TransformMetrics.Timer.MATCH, matched - read);
+            record(buffer.limit(), scratch);
+
+            try (var out = writer.forClass(name)) {
+                if (scratch.targetCount == 0) {
+                    transfer(channel, buffer, out);
+                } else {
+                    int length = buffer.limit();
+                    ByteBuffer rewritten;
+                    if (compact) {
+                        rewritten = ByteBuffer.wrap(compact(splice(buffer, length, scratch)));
+                    } else {
+                        rewritten = scratch.output(length + scratch.sizeDelta);
+                        splice(buffer, length, scratch, rewritten.array());
+                    }
+                    writeFully(rewritten, out);
+                }
+            }
+            metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - matched);
+        }
+    }
+
+    /**
+     * Copies the whole of an unchanged file to the output, leaving the copying to the file system where it can. Should
+     * a transfer make no progress, as some channels allow, the rest is written from the buffer already read.
+     */
+    private static void transfer(FileChannel channel, ByteBuffer buffer, GatheringByteChannel out) throws IOException {
+        long size = buffer.limit();
+        long position = 0;
+        while (position < size) {
+            long transferred = channel.transferTo(position, size - position, out);
+            if (transferred <= 0) {
+                writeFully(buffer.duplicate().position((int) position), out);
+                return;
+            }
+            position += transferred;
+        }
+    }
+
+    private static void writeFully(ByteBuffer buffer, GatheringByteChannel out) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (out.write(buffer) <= 0) {
+                throw new IOException("Could not write to "+out+"; it took no bytes");
+            }
+        }
+    }
+
+    /**
+     * Finds the Utf8 entries of the constant pool which need rewriting, and the entry holding the class's own name.
+     * @param match whether to look for entries to rewrite at all, rather than only for the name
+     */
+    private void findTargets(ByteBuffer buffer, Scratch scratch, boolean match) {
+        scratch.clear();
+        // Heap buffers are always wrapped from the start of their array
+        byte[] array = buffer.hasArray() ? buffer.array() : null;
+        // Matching each entry is skipped for classes which a scan shows cannot need it; mapped files are not scanned
+        match = match && (array == null || transformer.mayApplyTo(array, 0, buffer.limit()));
+        int count = buffer.getShort(8) & 0xFFFF;
+        int[] offsets = scratch.poolOffsets(count);
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = offset;
+            byte tag = buffer.get(offset);
+            switch (tag) {
+                case 1 -> {
+                    // CONSTANT_Utf8_info
+                    int length = buffer.getShort(offset + 1) & 0xFFFF;
+                    byte[] newValue;
+                    if (!match) {
+                        newValue = null;
+                    } else if (array != null) {
+                        newValue = transformer.applyModifiedUtf8(array, offset + 3, length, scratch.lookups);
+                    } else {
+                        byte[] utf8 = scratch.utf8(length);
+                        buffer.get(offset + 3, utf8, 0, length);
+                        newValue = transformer.applyModifiedUtf8(utf8, 0, length, scratch.lookups);
+                    }
+                    if (newValue != null) {
+                        scratch.addTarget(offset + 1, length, newValue);
+                    }
+                    offset += 3 + length;
+                }
+                case 7, 8, 16, 19, 20 -> offset += 3;
+                case 15 -> offset += 4;
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> offset += 5;
+                case 5, 6 -> {
+                    // Takes up two slots
+                    offset += 9;
+                    i++;
+                }
+                default -> throw new IllegalArgumentException("Unknown constant pool tag "+tag);
             }
         }
-        byte[] result = new byte[current];
-        System.arraycopy(bytes, 0, result, 0, current);
+        int thisClass = buffer.getShort(offset + 2) & 0xFFFF;
+        scratch.nameOffset = offsets[buffer.getShort(offsets[thisClass] + 1) & 0xFFFF];
+    }
+
+    private String rewrittenName(ByteBuffer buffer, Scratch scratch) {
+        return transformer.apply(className(buffer, scratch));
+    }
+
+    private static String className(ByteBuffer buffer, Scratch scratch) {
+        int offset = scratch.nameOffset;
+        int length = buffer.getShort(offset + 1) & 0xFFFF;
+        String name;
+        if (buffer.hasArray()) {
+            name = ModifiedUtf8.decode(buffer.array(), offset + 3, length);
+        } else {
+            byte[] utf8 = scratch.utf8(length);
+            buffer.get(offset + 3, utf8, 0, length);
+            name = ModifiedUtf8.decode(utf8, 0, length);
+        }
+        return name;
+    }
+
+    private static byte[] splice(ByteBuffer buffer, int size, Scratch scratch) {
+        byte[] result = new byte[size + scratch.sizeDelta];
+        splice(buffer, size, scratch, result);
         return result;
     }
+
+    private static void splice(ByteBuffer buffer, int size, Scratch scratch, byte[] result) {
+        int soFar = 0;
+        int written = 0;
+        for (int i = 0; i < scratch.targetCount; i++) {
+            int offset = scratch.targetOffsets[i];
+            byte[] newValue = scratch.targetValues[i];
+            buffer.get(soFar, result, written, offset - soFar);
+            written += offset - soFar;
+            result[written++] = (byte) (newValue.length >> 8);
+            result[written++] = (byte) (newValue.length & 0xFF);
+            System.arraycopy(newValue, 0, result, written, newValue.length);
+            written += newValue.length;
+            soFar = offset + scratch.targetLengths[i] + 2;
+        }
+        buffer.get(soFar, result, written, size - soFar);
+    }
+
+    private byte[] compact(byte[] rewritten) {
+        if (!compact) {
+            return rewritten;
+        }
+        long start = System.nanoTime();
+        byte[] compacted = ConstantPoolCompactor.compact(rewritten);
+        metrics.addTime(TransformMetrics.Timer.COMPACT, System.nanoTime() - start);
+        if (compacted == null) {
+            return rewritten;
+        }
+        metrics.add(TransformMetrics.Counter.CONSTANTS_REMOVED, constantCount(rewritten) - constantCount(compacted));
+        metrics.add(TransformMetrics.Counter.BYTES_WRITTEN, compacted.length - rewritten.length);
+        return compacted;
+    }
+
+    private static int constantCount(byte[] bytes) {
+        return (bytes[8] & 0xFF) << 8 | (bytes[9] & 0xFF);
+    }
+
+    private void record(long size, Scratch scratch) {
+        metrics.add(TransformMetrics.Counter.CLASSES_PROCESSED, 1);
+        metrics.add(TransformMetrics.Counter.BYTES_READ, size);
+        metrics.add(TransformMetrics.Counter.BYTES_WRITTEN, size + scratch.sizeDelta);
+        metrics.add(TransformMetrics.Counter.CACHE_HITS, scratch.lookups.hits);
+        metrics.add(TransformMetrics.Counter.CACHE_MISSES, scratch.lookups.misses);
+        if (scratch.targetCount != 0) {
+            metrics.add(TransformMetrics.Counter.CLASSES_REWRITTEN, 1);
+            metrics.add(TransformMetrics.Counter.CONSTANTS_REWRITTEN, scratch.targetCount);
+        }
+    }
+
+    /**
+     * Buffers reused by each thread from one class to the next, so that in steady state rewriting a class allocates
+     * nothing but its output. The constants to rewrite are kept as parallel arrays: the offset of each one's length, its
+     * old length, and its new value.
+     */
+    private static final class Scratch {
+        private static final PerThread<Scratch> SCRATCH = new PerThread<>(Scratch::new);
+
+        private byte[] input = new byte[1 << 14];
+        private ByteBuffer inputBuffer = ByteBuffer.wrap(input);
+        private ByteBuffer outputBuffer = ByteBuffer.allocate(1 << 14);
+        private byte[] utf8 = new byte[256];
+        private int[] poolOffsets = new int[1 << 10];
+        private int[] targetOffsets = new int[64];
+        private int[] targetLengths = new int[64];
+        private byte[][] targetValues = new byte[64][];
+        private int targetCount;
+        private int sizeDelta;
+        private int nameOffset;
+        private final ReplacementCache.Lookups lookups = new ReplacementCache.Lookups();
+        private boolean inUse;
+
+        static Scratch acquire() {
+            Scratch scratch = SCRATCH.get();
+            // A writer, or a class loaded part way through, may rewrite another class on the same thread
+            if (scratch.inUse) {
+                scratch = new Scratch();
+            }
+            scratch.inUse = true;
+            return scratch;
+        }
+
+        void release() {
+            inUse = false;
+        }
+
+        void clear() {
+            Arrays.fill(targetValues, 0, targetCount, null);
+            targetCount = 0;
+            sizeDelta = 0;
+            lookups.clear();
+        }
+
+        void addTarget(int offset, int length, byte[] newValue) {
+            if (targetCount == targetOffsets.length) {
+                int capacity = targetCount * 2;
+                targetOffsets = Arrays.copyOf(targetOffsets, capacity);
+                targetLengths = Arrays.copyOf(targetLengths, capacity);
+                targetValues = Arrays.copyOf(targetValues, capacity);
+            }
+            targetOffsets[targetCount] = offset;
+            targetLengths[targetCount] = length;
+            targetValues[targetCount] = newValue;
+            targetCount++;
+            sizeDelta += newValue.length - length;
+        }
+
+        int[] poolOffsets(int count) {
+            if (count > poolOffsets.length) {
+                poolOffsets = new int[Math.max(count, poolOffsets.length * 2)];
+            }
+            return poolOffsets;
+        }
+
+        byte[] utf8(int length) {
+            if (length > utf8.length) {
+                utf8 = new byte[Math.max(length, utf8.length * 2)];
+            }
+            return utf8;
+        }
+
+        /**
+         * {@return an empty buffer with room for the given number of bytes, backed by the input array}
+         */
+        ByteBuffer input(int size) {
+            if (size > input.length) {
+                growInput(size);
+            }
+            return inputBuffer.clear().limit(size);
+        }
+
+        /**
+         * Reads the whole stream into the input array.
+         * @return a buffer holding what was read
+         */
+        ByteBuffer read(InputStream is) throws IOException {
+            int size = 0;
+            while (true) {
+                if (size == input.length) {
+                    growInput(size + 1);
+                }
+                int read = is.read(input, size, input.length - size);
+                if (read == -1) {
+                    return inputBuffer.clear().limit(size);
+                }
+                size += read;
+            }
+        }
+
+        private void growInput(int size) {
+            input = Arrays.copyOf(input, Math.max(size, input.length * 2));
+            inputBuffer = ByteBuffer.wrap(input);
+        }
+
+        /**
+         * {@return a buffer of the given size, backed by the output array}
+         */
+        ByteBuffer output(int size) {
+            if (size > outputBuffer.capacity()) {
+                outputBuffer = ByteBuffer.allocate(Math.max(size, outputBuffer.capacity() * 2));
+            }
+            return outputBuffer.clear().limit(size);
+        }
+    }
 }
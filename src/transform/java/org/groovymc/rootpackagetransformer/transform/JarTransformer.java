@@ -0,0 +1,219 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import org.apache.commons.compress.archivers.zip.UnicodePathExtraField;
+import org.apache.commons.compress.archivers.zip.Zip64ExtendedInformationExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipExtraField;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transforms a jar into its root package variant in a single pass. Entries which the transformer leaves unchanged,
+ * including all resources and the manifest, are copied across still compressed; only rewritten classes are deflated
+ * again.
+ */
+public final class JarTransformer {
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String VERSIONS_DIRECTORY = "META-INF/versions/";
+
+    /**
+     * The location of the list of transformed classes within a jar built by the plugin.
+     */
+    public static final String LIST_ENTRY = "META-INF/org.groovymc.rootpackagetransformer.transformedclasses";
+
+    // Used for entries which do not record their size
+    private static final long DEFAULT_ENTRY_SIZE = 1 << 16;
+
+    private final ConstantPoolRewriter rewriter;
+    private final TransformMetrics metrics;
+    private final TransformPipeline pipeline;
+
+    public JarTransformer(RootPackageTransformer transformer) {
+        this(transformer, false);
+    }
+
+    public JarTransformer(RootPackageTransformer transformer, boolean compact) {
+        this(transformer, compact, ParallelTasks.defaultParallelism());
+    }
+
+    /**
+     * @param compact     whether to rebuild the constant pools of rewritten classes; see
+     *                    {@link ConstantPoolRewriter#ConstantPoolRewriter(RootPackageTransformer, TransformMetrics, boolean)}
+     * @param parallelism how many classes may be rewritten at once
+     */
+    public JarTransformer(RootPackageTransformer transformer, boolean compact, int parallelism) {
+        this(transformer, TransformMetrics.NONE, compact, parallelism, TransformPipeline.defaultMemoryBudget());
+    }
+
+    /**
+     * @param memoryBudget roughly how many bytes of classes may be held in memory at once; see
+     *                     {@link TransformPipeline#TransformPipeline(int, long)}
+     */
+    public JarTransformer(RootPackageTransformer transformer, TransformMetrics metrics, boolean compact, int parallelism, long memoryBudget) {
+        this.rewriter = new ConstantPoolRewriter(transformer, metrics, compact);
+        this.metrics = metrics;
+        this.pipeline = new TransformPipeline(parallelism, memoryBudget);
+    }
+
+    /**
+     * Finds the classes to move in a jar, from its list of transformed classes if present, or otherwise by scanning its
+     * classes for the annotation.
+     */
+    public static RootPackageTransformer classesToMove(Path jar) throws IOException {
+        return classesToMove(jar, 1);
+    }
+
+    /**
+     * @param parallelism how many classes may be scanned at once, when the jar has no list
+     */
+    public static RootPackageTransformer classesToMove(Path jar, int parallelism) throws IOException {
+        try (var zip = ZipFile.builder().setPath(jar).get()) {
+            var list = zip.getEntry(LIST_ENTRY);
+            if (list != null) {
+                try (var reader = new BufferedReader(new InputStreamReader(zip.getInputStream(list), StandardCharsets.UTF_8))) {
+                    return new RootPackageTransformer(reader.lines().filter(line -> !line.isBlank()).toList());
+                }
+            }
+            List<ZipArchiveEntry> entries = new ArrayList<>();
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+                if (!entry.isDirectory() && entry.getName().endsWith(CLASS_EXTENSION)) {
+                    entries.add(entry);
+                }
+            }
+            Set<String> classes = ConcurrentHashMap.newKeySet();
+            ParallelTasks.forEach(entries, parallelism, entry -> {
+                try (var is = zip.getInputStream(entry)) {
+                    String name = RootPackageTransformer.relocatedName(is.readAllBytes());
+                    if (name != null) {
+                        classes.add(name);
+                    }
+                }
+            });
+            return new RootPackageTransformer(classes);
+        }
+    }
+
+    public void transform(Path input, Path output) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (var zip = ZipFile.builder().setPath(input).get();
+             var os = new ZipArchiveOutputStream(output)) {
+            // Entries are written in their original order, while the classes after them are read and rewritten
+            pipeline.runOrdered(Collections.list(zip.getEntriesInPhysicalOrder()), JarTransformer::weight, entry -> {
+                if (!isClass(entry)) {
+                    return new ReadEntry(entry, null);
+                }
+                long start = System.nanoTime();
+                try (var is = zip.getInputStream(entry)) {
+                    return new ReadEntry(entry, is.readAllBytes());
+                } finally {
+                    metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
+                }
+            }, this::rewriteAll, rewritten -> {
+                long start = System.nanoTime();
+                var entry = rewritten.entry();
+                if (rewritten.rewritten() == null) {
+                    copyRaw(zip, entry, os, names);
+                    if (isClass(entry)) {
+                        metrics.add(TransformMetrics.Counter.CLASSES_PASSED_THROUGH, 1);
+                    }
+                } else {
+                    String name = entryName(entry.getName(), rewritten.rewritten().name());
+                    checkUnique(names, name);
+                    os.putArchiveEntry(renamedEntry(entry, name));
+                    os.write(rewritten.rewritten().bytes());
+                    os.closeArchiveEntry();
+                }
+                metrics.addTime(TransformMetrics.Timer.IO, System.nanoTime() - start);
+            });
+        }
+    }
+
+    /**
+     * Rewrites the classes taken by one thread in a batch; other entries are passed on as they are.
+     */
+    private void rewriteAll(Iterable<? extends ReadEntry> reads, TransformPipeline.Sink<? super RewrittenEntry> results) throws IOException {
+        rewriter.rewriteAll(reads, ReadEntry::bytes, (read, rewritten) -> results.accept(new RewrittenEntry(read.entry(), rewritten)));
+    }
+
+    private record ReadEntry(ZipArchiveEntry entry, byte[] bytes) {}
+
+    private record RewrittenEntry(ZipArchiveEntry entry, ConstantPoolRewriter.RewrittenClass rewritten) {}
+
+    private static boolean isClass(ZipArchiveEntry entry) {
+        return !entry.isDirectory() && entry.getName().endsWith(CLASS_EXTENSION);
+    }
+
+    /**
+     * Classes are held both as read and as rewritten; other entries are copied straight from the jar by the writer.
+     */
+    private static long weight(ZipArchiveEntry entry) {
+        if (!isClass(entry)) {
+            return 0;
+        }
+        return 2 * (entry.getSize() < 0 ? DEFAULT_ENTRY_SIZE : entry.getSize());
+    }
+
+    /**
+     * {@return a new entry for the rewritten form of the given one, with the same metadata} Only what describes the old
+     * contents or name is left behind; the rest, such as timestamps and permissions, carries over.
+     */
+    private static ZipArchiveEntry renamedEntry(ZipArchiveEntry entry, String name) {
+        var newEntry = new ZipArchiveEntry(name);
+        // Only these two can be written
+        newEntry.setMethod(entry.getMethod() == ZipArchiveEntry.STORED ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED);
+        newEntry.setTime(entry.getTime());
+        newEntry.setComment(entry.getComment());
+        newEntry.setInternalAttributes(entry.getInternalAttributes());
+        newEntry.setExternalAttributes(entry.getExternalAttributes());
+        if (entry.getPlatform() == ZipArchiveEntry.PLATFORM_UNIX) {
+            newEntry.setUnixMode(entry.getUnixMode());
+        }
+        List<ZipExtraField> extra = new ArrayList<>();
+        for (ZipExtraField field : entry.getExtraFields()) {
+            // Sizes and names which no longer match the entry
+            if (!(field instanceof Zip64ExtendedInformationExtraField) && !(field instanceof UnicodePathExtraField)) {
+                extra.add(field);
+            }
+        }
+        newEntry.setExtraFields(extra.toArray(ZipExtraField[]::new));
+        return newEntry;
+    }
+
+    private static void copyRaw(ZipFile zip, ZipArchiveEntry entry, ZipArchiveOutputStream os, Set<String> names) throws IOException {
+        checkUnique(names, entry.getName());
+        try (var raw = zip.getRawInputStream(entry)) {
+            os.addRawArchiveEntry(entry, raw);
+        }
+    }
+
+    private static void checkUnique(Set<String> names, String name) throws IOException {
+        if (!names.add(name)) {
+            throw new IOException("Duplicate jar entry "+name+" after transformation");
+        }
+    }
+
+    /**
+     * Keeps the prefix of a multi-release version directory, which is not part of the class name.
+     */
+    private static String entryName(String original, String className) {
+        if (original.startsWith(VERSIONS_DIRECTORY)) {
+            int versionEnd = original.indexOf('/', VERSIONS_DIRECTORY.length());
+            if (versionEnd != -1) {
+                return original.substring(0, versionEnd + 1) + className + CLASS_EXTENSION;
+            }
+        }
+        return className + CLASS_EXTENSION;
+    }
+}
@@ -0,0 +1,49 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+final class ModifiedUtf8 {
+    private ModifiedUtf8() {}
+
+    static byte[] encode(String value) {
+        int length = value.length();
+        byte[] bytes = new byte[length * 3];
+        int current = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && c != 0) {
+                bytes[current++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[current++] = (byte) (0b11000000 | (c >> 6));
+                bytes[current++] = (byte) (0b10000000 | (c & 0b00111111));
+            } else {
+                bytes[current++] = (byte) (0b11100000 | (c >> 12));
+                bytes[current++] = (byte) (0b10000000 | ((c >> 6) & 0b00111111));
+                bytes[current++] = (byte) (0b10000000 | (c & 0b00111111));
+            }
+        }
+        byte[] result = new byte[current];
+        System.arraycopy(bytes, 0, result, 0, current);
+        return result;
+    }
+
+    static String decode(byte[] bytes, int offset, int length) {
+        int current = offset;
+        int end = current + length;
+        int totalLength = 0;
+        char[] charBuffer = new char[length];
+        while (current < end) {
+            int currentByte = bytes[current++];
+            if ((currentByte & 0x80) == 0) {
+                charBuffer[totalLength++] = (char) (currentByte & 0x7F);
+            } else if ((currentByte & 0xE0) == 0xC0) {
+                charBuffer[totalLength++] =
+                        (char) (((currentByte & 0x1F) << 6) + (bytes[current++] & 0x3F));
+            } else {
+                charBuffer[totalLength++] =
+                        (char) (((currentByte & 0xF) << 12)
+                                + ((bytes[current++] & 0x3F) << 6)
+                                + (bytes[current++] & 0x3F));
+            }
+        }
+        return new String(charBuffer, 0, totalLength);
+    }
+}
@@ -0,0 +1,57 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs independent per-file work across a bounded number of threads.
+ */
+public final class ParallelTasks {
+    private ParallelTasks() {}
+
+    @FunctionalInterface
+    public interface Action<T> {
+        void execute(T item) throws IOException;
+    }
+
+    public static int defaultParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public static <T> void forEach(Collection<T> items, int parallelism, Action<? super T> action) throws IOException {
+        if (parallelism <= 1 || items.size() <= 1) {
+            for (T item : items) {
+                action.execute(item);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> items.parallelStream().forEach(item -> {
+                try {
+                    action.execute(item);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            } else if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.lang.ref.SoftReference;
+import java.util.function.Supplier;
+
+/**
+ * A value kept for each thread and reused from one call to the next, such as a scratch buffer. Values are only softly
+ * held, so that those kept by the long-lived threads of a build daemon neither pin memory nor keep the class loader
+ * which defined them alive.
+ */
+final class PerThread<T> {
+    private final ThreadLocal<SoftReference<T>> values = new ThreadLocal<>();
+    private final Supplier<T> factory;
+
+    PerThread(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    T get() {
+        SoftReference<T> reference = values.get();
+        T value = reference == null ? null : reference.get();
+        if (value == null) {
+            value = factory.get();
+            values.set(new SoftReference<>(value));
+        }
+        return value;
+    }
+}
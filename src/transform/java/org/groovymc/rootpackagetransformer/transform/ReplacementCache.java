@@ -0,0 +1,134 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe memo of what a {@link ReplacementMatcher} does to short modified UTF-8 strings. The same
+ * constant pool strings (names of common classes, attribute names, descriptors) turn up in nearly every class, so most
+ * lookups after the first few classes are hits. Unchanged strings are remembered too, which is most of them.
+ * <p>
+ * Entries are split over a fixed number of segments by hash, each of which evicts its least recently used entry once
+ * full.
+ */
+final class ReplacementCache {
+    static final int DEFAULT_CAPACITY = 1 << 13;
+    // Longer strings rarely recur, and would only crowd out the ones that do
+    private static final int MAX_KEY_LENGTH = 256;
+    private static final int SEGMENTS = 16;
+    private static final byte[] UNCHANGED = new byte[0];
+    // Lookups compare against the string where it lies, through a key reused by each thread
+    private static final PerThread<Key> PROBES = new PerThread<>(Key::new);
+
+    private final ReplacementMatcher matcher;
+    private final Segment[] segments;
+
+    ReplacementCache(ReplacementMatcher matcher, int capacity) {
+        this.matcher = matcher;
+        if (capacity <= 0) {
+            this.segments = null;
+        } else {
+            this.segments = new Segment[SEGMENTS];
+            int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment(segmentCapacity);
+            }
+        }
+    }
+
+    /**
+     * @param lookups where to count whether the string was found in the cache; the cache is shared by everything using
+     *                the same transformer, so counts are kept by the caller
+     * @return the rewritten bytes, or {@code null} if the string is unchanged; the returned array is shared, and must
+     * not be modified
+     */
+    byte[] replace(byte[] bytes, int offset, int length, Lookups lookups) {
+        if (segments == null || length > MAX_KEY_LENGTH) {
+            return matcher.replace(bytes, offset, length);
+        }
+        Key probe = PROBES.get().set(bytes, offset, length);
+        Segment segment = segments[(probe.hash ^ (probe.hash >>> 16)) & (SEGMENTS - 1)];
+        byte[] cached;
+        synchronized (segment) {
+            cached = segment.get(probe);
+        }
+        if (cached != null) {
+            lookups.hits++;
+            return cached == UNCHANGED ? null : cached;
+        }
+        lookups.misses++;
+        byte[] result = matcher.replace(bytes, offset, length);
+        Key key = new Key().set(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+        synchronized (segment) {
+            segment.put(key, result == null ? UNCHANGED : result);
+        }
+        return result;
+    }
+
+    /**
+     * How many lookups were answered from the cache, and how many had to be matched, for one caller.
+     */
+    static final class Lookups {
+        int hits;
+        int misses;
+
+        void clear() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Key, byte[]> {
+        // Never serialized, but declared as LinkedHashMap is serializable
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * A view of a string in some array. Keys in a segment own a copy of their string, and are never changed once added;
+     * only probes are pointed at other strings.
+     */
+    private static final class Key {
+        private byte[] bytes;
+        private int offset;
+        private int length;
+        private int hash;
+
+        private Key set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            int hash = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            this.hash = hash;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && length == other.length
+                    && Arrays.equals(bytes, offset, offset + length, other.bytes, other.offset, other.offset + length);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
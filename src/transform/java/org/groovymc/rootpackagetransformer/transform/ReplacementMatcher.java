@@ -0,0 +1,432 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton over the targets of a set of replacements, compiled once and then used to rewrite input
+ * in a single left-to-right pass. Where matches overlap, the leftmost match wins, and of those the longest.
+ * <p>
+ * A matcher works either on the characters of a string, or on the modified UTF-8 bytes of a class file constant. As
+ * modified UTF-8 is self-synchronizing, matching encoded targets against encoded input finds exactly the matches that
+ * decoding it first would.
+ * <p>
+ * The transitions out of each state are stored flat, in one pair of arrays sorted by symbol within each state, so that
+ * a compiled matcher can be written out and read back by copying a few arrays.
+ */
+final class ReplacementMatcher {
+    private static final int ROOT = 0;
+    private static final int DENSE_SYMBOLS = 256;
+    private static final long NO_MATCH = -1;
+    // Stands in for a target when the input ends before a match can be decided
+    private static final int MORE_INPUT = -1;
+    static final int STREAM_BUFFER = 1 << 16;
+
+    private final int[] rootNext;
+    // The transitions out of state s are at edgeStart[s] up to edgeStart[s + 1]
+    private final int[] edgeStart;
+    private final int[] edgeKeys;
+    private final int[] edgeNext;
+    private final int[] fail;
+    private final int[] depth;
+    private final int[] output;
+    private final int[] targetLengths;
+    private final String[] replacements;
+    private final byte[][] encodedReplacements;
+
+    static ReplacementMatcher forChars(List<RootPackageTransformer.Replacement> entries) {
+        return new ReplacementMatcher(entries, false);
+    }
+
+    static ReplacementMatcher forModifiedUtf8(List<RootPackageTransformer.Replacement> entries) {
+        return new ReplacementMatcher(entries, true);
+    }
+
+    private ReplacementMatcher(List<RootPackageTransformer.Replacement> entries, boolean encoded) {
+        List<int[]> keysList = new ArrayList<>();
+        List<int[]> nextList = new ArrayList<>();
+        List<Integer> depthList = new ArrayList<>();
+        List<Integer> terminalList = new ArrayList<>();
+        keysList.add(new int[0]);
+        nextList.add(new int[0]);
+        depthList.add(0);
+        terminalList.add(-1);
+
+        List<Integer> lengthList = new ArrayList<>();
+        List<String> replacementList = new ArrayList<>();
+        for (var entry : entries) {
+            int[] symbols = encoded ? symbols(ModifiedUtf8.encode(entry.target())) : entry.target().chars().toArray();
+            if (symbols.length == 0) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < symbols.length; i++) {
+                int symbol = symbols[i];
+                int[] stateKeys = keysList.get(state);
+                int index = Arrays.binarySearch(stateKeys, symbol);
+                if (index >= 0) {
+                    state = nextList.get(state)[index];
+                } else {
+                    int created = keysList.size();
+                    keysList.add(new int[0]);
+                    nextList.add(new int[0]);
+                    depthList.add(i + 1);
+                    terminalList.add(-1);
+                    int insert = -index - 1;
+                    keysList.set(state, insertAt(stateKeys, insert, symbol));
+                    nextList.set(state, insertAt(nextList.get(state), insert, created));
+                    state = created;
+                }
+            }
+            if (terminalList.get(state) == -1) {
+                terminalList.set(state, lengthList.size());
+                lengthList.add(symbols.length);
+                replacementList.add(entry.replacement());
+            }
+        }
+
+        int states = keysList.size();
+        this.edgeStart = new int[states + 1];
+        for (int i = 0; i < states; i++) {
+            edgeStart[i + 1] = edgeStart[i] + keysList.get(i).length;
+        }
+        this.edgeKeys = new int[edgeStart[states]];
+        this.edgeNext = new int[edgeStart[states]];
+        for (int i = 0; i < states; i++) {
+            System.arraycopy(keysList.get(i), 0, edgeKeys, edgeStart[i], keysList.get(i).length);
+            System.arraycopy(nextList.get(i), 0, edgeNext, edgeStart[i], nextList.get(i).length);
+        }
+        this.depth = new int[states];
+        this.fail = new int[states];
+        this.output = new int[states];
+        for (int i = 0; i < states; i++) {
+            depth[i] = depthList.get(i);
+            output[i] = terminalList.get(i);
+        }
+        this.targetLengths = lengthList.stream().mapToInt(Integer::intValue).toArray();
+        this.replacements = replacementList.toArray(new String[0]);
+        this.encodedReplacements = encodeReplacements(replacements);
+        this.rootNext = rootNext(edgeStart, edgeKeys, edgeNext);
+
+        // Breadth-first, so that failure links always point at states which are already complete
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+            fail[edgeNext[i]] = ROOT;
+            queue[tail++] = edgeNext[i];
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int i = edgeStart[state]; i < edgeStart[state + 1]; i++) {
+                int child = edgeNext[i];
+                fail[child] = step(fail[state], edgeKeys[i]);
+                if (output[child] == -1) {
+                    output[child] = output[fail[child]];
+                }
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private ReplacementMatcher(int[] edgeStart, int[] edgeKeys, int[] edgeNext, int[] fail, int[] depth, int[] output, int[] targetLengths, String[] replacements) {
+        this.edgeStart = edgeStart;
+        this.edgeKeys = edgeKeys;
+        this.edgeNext = edgeNext;
+        this.fail = fail;
+        this.depth = depth;
+        this.output = output;
+        this.targetLengths = targetLengths;
+        this.replacements = replacements;
+        this.encodedReplacements = encodeReplacements(replacements);
+        this.rootNext = rootNext(edgeStart, edgeKeys, edgeNext);
+    }
+
+    private static byte[][] encodeReplacements(String[] replacements) {
+        byte[][] encoded = new byte[replacements.length][];
+        for (int i = 0; i < replacements.length; i++) {
+            encoded[i] = ModifiedUtf8.encode(replacements[i]);
+        }
+        return encoded;
+    }
+
+    private static int[] rootNext(int[] edgeStart, int[] edgeKeys, int[] edgeNext) {
+        int[] rootNext = new int[DENSE_SYMBOLS];
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+            if (edgeKeys[i] < DENSE_SYMBOLS) {
+                rootNext[edgeKeys[i]] = edgeNext[i];
+            }
+        }
+        return rootNext;
+    }
+
+    /**
+     * Writes the compiled automaton, to be read back by {@link #read(ByteBuffer)}.
+     */
+    void write(DataOutput out) throws IOException {
+        writeInts(out, edgeStart);
+        writeInts(out, edgeKeys);
+        writeInts(out, edgeNext);
+        writeInts(out, fail);
+        writeInts(out, depth);
+        writeInts(out, output);
+        writeInts(out, targetLengths);
+        out.writeInt(replacements.length);
+        for (String replacement : replacements) {
+            out.writeUTF(replacement);
+        }
+    }
+
+    /**
+     * Reads an automaton written by {@link #write(DataOutput)}, starting at the buffer's position and leaving the
+     * position after it.
+     */
+    static ReplacementMatcher read(ByteBuffer buffer) {
+        int[] edgeStart = readInts(buffer);
+        int[] edgeKeys = readInts(buffer);
+        int[] edgeNext = readInts(buffer);
+        int[] fail = readInts(buffer);
+        int[] depth = readInts(buffer);
+        int[] output = readInts(buffer);
+        int[] targetLengths = readInts(buffer);
+        String[] replacements = new String[buffer.getInt()];
+        for (int i = 0; i < replacements.length; i++) {
+            replacements[i] = readUtf(buffer);
+        }
+        return new ReplacementMatcher(edgeStart, edgeKeys, edgeNext, fail, depth, output, targetLengths, replacements);
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer) {
+        int[] values = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Reads a string as written by {@link DataOutput#writeUTF(String)}.
+     */
+    static String readUtf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return ModifiedUtf8.decode(bytes, 0, bytes.length);
+    }
+
+    private static int[] symbols(byte[] bytes) {
+        int[] symbols = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            symbols[i] = bytes[i] & 0xFF;
+        }
+        return symbols;
+    }
+
+    private static int[] insertAt(int[] array, int index, int value) {
+        int[] result = new int[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private int step(int state, int symbol) {
+        while (true) {
+            if (state == ROOT) {
+                if (symbol < DENSE_SYMBOLS) {
+                    return rootNext[symbol];
+                }
+                int index = Arrays.binarySearch(edgeKeys, edgeStart[ROOT], edgeStart[ROOT + 1], symbol);
+                return index >= 0 ? edgeNext[index] : ROOT;
+            }
+            for (int i = edgeStart[state], end = edgeStart[state + 1]; i < end; i++) {
+                if (edgeKeys[i] == symbol) {
+                    return edgeNext[i];
+                }
+            }
+            state = fail[state];
+        }
+    }
+
+    private static long match(int start, int target) {
+        return ((long) start << 32) | (target & 0xFFFFFFFFL);
+    }
+
+    private static int matchStart(long match) {
+        return (int) (match >>> 32);
+    }
+
+    private static int matchTarget(long match) {
+        return (int) match;
+    }
+
+    /**
+     * Records a match of {@code target} ending at {@code end} against the pending match, keeping whichever is leftmost
+     * and then longest.
+     */
+    private long offer(long pending, int target, int end) {
+        int start = end - targetLengths[target];
+        if (pending == NO_MATCH || start < matchStart(pending)
+                || (start == matchStart(pending) && targetLengths[target] > targetLengths[matchTarget(pending)])) {
+            return match(start, target);
+        }
+        return pending;
+    }
+
+    private long nextMatch(CharSequence s, int from, int end) {
+        return nextMatch(s, from, end, true);
+    }
+
+    /**
+     * Finds the next match in the given range. If more input may follow the range and no match could be decided yet,
+     * returns a {@link #MORE_INPUT} match starting at the first position which could still be part of one.
+     */
+    private long nextMatch(CharSequence s, int from, int end, boolean endOfInput) {
+        int state = ROOT;
+        long pending = NO_MATCH;
+        for (int i = from; i < end;) {
+            state = step(state, s.charAt(i++));
+            if (output[state] != -1) {
+                pending = offer(pending, output[state], i);
+            }
+            // No match discovered later can start at or before the pending one, so it is final
+            if (pending != NO_MATCH && i - depth[state] > matchStart(pending)) {
+                return pending;
+            }
+        }
+        if (!endOfInput) {
+            return match(end - depth[state], MORE_INPUT);
+        }
+        return pending;
+    }
+
+    private long nextMatch(byte[] bytes, int from, int end) {
+        int state = ROOT;
+        long pending = NO_MATCH;
+        for (int i = from; i < end;) {
+            state = step(state, bytes[i++] & 0xFF);
+            if (output[state] != -1) {
+                pending = offer(pending, output[state], i);
+            }
+            if (pending != NO_MATCH && i - depth[state] > matchStart(pending)) {
+                return pending;
+            }
+        }
+        return pending;
+    }
+
+    String replace(String s) {
+        int length = s.length();
+        long match = nextMatch(s, 0, length);
+        if (match == NO_MATCH) {
+            return s;
+        }
+        StringBuilder builder = new StringBuilder(length);
+        int copied = 0;
+        do {
+            int start = matchStart(match);
+            int target = matchTarget(match);
+            builder.append(s, copied, start).append(replacements[target]);
+            copied = start + targetLengths[target];
+            match = nextMatch(s, copied, length);
+        } while (match != NO_MATCH);
+        return builder.append(s, copied, length).toString();
+    }
+
+    /**
+     * Streams text from the reader to the writer, rewriting it on the way, while holding at most a buffer's worth of it
+     * in memory.
+     * @param writer where to write the rewritten text, or {@code null} to only check whether anything would be replaced
+     * @return whether anything was replaced
+     */
+    boolean replace(Reader reader, Writer writer) throws IOException {
+        char[] buffer = new char[STREAM_BUFFER];
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        int filled = 0;
+        boolean endOfInput = false;
+        boolean replaced = false;
+        while (true) {
+            while (!endOfInput && filled < buffer.length) {
+                int read = reader.read(buffer, filled, buffer.length - filled);
+                if (read == -1) {
+                    endOfInput = true;
+                } else {
+                    filled += read;
+                }
+            }
+            int copied = 0;
+            while (true) {
+                long match = nextMatch(chars, copied, filled, endOfInput);
+                int end = match == NO_MATCH ? filled : matchStart(match);
+                if (writer != null) {
+                    writer.write(buffer, copied, end - copied);
+                }
+                copied = end;
+                if (match == NO_MATCH || matchTarget(match) == MORE_INPUT) {
+                    break;
+                }
+                replaced = true;
+                if (writer == null) {
+                    return true;
+                }
+                writer.write(replacements[matchTarget(match)]);
+                copied += targetLengths[matchTarget(match)];
+            }
+            if (endOfInput) {
+                return replaced;
+            }
+            // Carry over whatever could still be the start of a match
+            System.arraycopy(buffer, copied, buffer, 0, filled - copied);
+            filled -= copied;
+            if (filled == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                chars = CharBuffer.wrap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the modified UTF-8 bytes in the given range. Only valid for a matcher created with
+     * {@link #forModifiedUtf8(List)}.
+     * @return the rewritten bytes, or {@code null} if nothing in the range matched
+     */
+    byte[] replace(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        long match = nextMatch(bytes, offset, end);
+        if (match == NO_MATCH) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        int written = 0;
+        int copied = offset;
+        do {
+            int start = matchStart(match);
+            byte[] replacement = encodedReplacements[matchTarget(match)];
+            int needed = written + (start - copied) + replacement.length + (end - start);
+            if (needed > result.length) {
+                result = Arrays.copyOf(result, Math.max(needed, result.length * 2));
+            }
+            System.arraycopy(bytes, copied, result, written, start - copied);
+            written += start - copied;
+            System.arraycopy(replacement, 0, result, written, replacement.length);
+            written += replacement.length;
+            copied = start + targetLengths[matchTarget(match)];
+            match = nextMatch(bytes, copied, end);
+        } while (match != NO_MATCH);
+        System.arraycopy(bytes, copied, result, written, end - copied);
+        written += end - copied;
+        return written == result.length ? result : Arrays.copyOf(result, written);
+    }
+}
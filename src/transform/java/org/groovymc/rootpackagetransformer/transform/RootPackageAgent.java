@@ -0,0 +1,222 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * A java agent which moves marked classes to the root package as they are loaded, so that the root package variant of
+ * a jar built by the plugin can be run without building it.
+ * <p>
+ * Class loaders cannot be made to find a class under a name it does not have, so on startup the agent writes the moved
+ * classes of each jar or directory on the class path (or on the path given as the agent's argument) to a temporary jar
+ * under their new names, which it appends to the system class path. Every class loaded by a loader which can see a
+ * {@link JarTransformer#LIST_ENTRY list} then has its references rewritten as it is defined. To load classes from
+ * elsewhere, use a {@link RootPackageClassLoader} instead.
+ */
+public final class RootPackageAgent {
+    private RootPackageAgent() {}
+
+    public static void premain(String arguments, Instrumentation instrumentation) throws IOException {
+        install(arguments, instrumentation);
+    }
+
+    public static void agentmain(String arguments, Instrumentation instrumentation) throws IOException {
+        install(arguments, instrumentation);
+    }
+
+    private static void install(String arguments, Instrumentation instrumentation) throws IOException {
+        String path = arguments == null || arguments.isBlank() ? System.getProperty("java.class.path") : arguments;
+        List<Path> roots = new ArrayList<>();
+        for (String entry : path.split(File.pathSeparator)) {
+            if (!entry.isBlank()) {
+                roots.add(Path.of(entry));
+            }
+        }
+        Path movedClasses = writeMovedClasses(roots);
+        if (movedClasses != null) {
+            instrumentation.appendToSystemClassLoaderSearch(new JarFile(movedClasses.toFile()));
+        }
+        instrumentation.addTransformer(new Transformer());
+    }
+
+    private static Path writeMovedClasses(List<Path> roots) throws IOException {
+        Path output = null;
+        JarOutputStream os = null;
+        try {
+            for (Path root : roots) {
+                try (var classes = ClassSource.open(root)) {
+                    if (classes == null) {
+                        continue;
+                    }
+                    var transformer = new RootPackageTransformer(classes.list());
+                    var rewriter = new ConstantPoolRewriter(transformer);
+                    // Nested classes of moved classes are moved along with them
+                    for (String name : classes.classNames()) {
+                        String newName = transformer.apply(name);
+                        if (newName.equals(name)) {
+                            continue;
+                        }
+                        byte[] bytes = classes.read(name + ".class");
+                        var rewritten = rewriter.rewrite(bytes);
+                        if (os == null) {
+                            output = Files.createTempFile("rootpackagetransformer", ".jar");
+                            output.toFile().deleteOnExit();
+                            os = new JarOutputStream(Files.newOutputStream(output));
+                        }
+                        os.putNextEntry(new JarEntry(newName + ".class"));
+                        os.write(rewritten == null ? bytes : rewritten.bytes());
+                        os.closeEntry();
+                    }
+                }
+            }
+        } finally {
+            if (os != null) {
+                os.close();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Reads classes from a class path entry which holds a list of classes to move.
+     */
+    private static abstract class ClassSource implements AutoCloseable {
+        static ClassSource open(Path root) throws IOException {
+            if (Files.isDirectory(root)) {
+                Path list = root.resolve(JarTransformer.LIST_ENTRY);
+                if (!Files.isRegularFile(list)) {
+                    return null;
+                }
+                return new ClassSource() {
+                    @Override
+                    List<String> list() throws IOException {
+                        return Files.readAllLines(list).stream().filter(line -> !line.isBlank()).toList();
+                    }
+
+                    @Override
+                    List<String> classNames() throws IOException {
+                        try (var stream = Files.walk(root)) {
+                            return stream.filter(Files::isRegularFile).map(file -> root.relativize(file).toString().replace(File.separatorChar, '/'))
+                                    .filter(name -> name.endsWith(".class"))
+                                    .map(name -> name.substring(0, name.length() - ".class".length()))
+                                    .toList();
+                        }
+                    }
+
+                    @Override
+                    byte[] read(String name) throws IOException {
+                        return Files.readAllBytes(root.resolve(name));
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+            }
+            if (!Files.isRegularFile(root)) {
+                return null;
+            }
+            JarFile jar = new JarFile(root.toFile());
+            JarEntry list = jar.getJarEntry(JarTransformer.LIST_ENTRY);
+            if (list == null) {
+                jar.close();
+                return null;
+            }
+            return new ClassSource() {
+                @Override
+                List<String> list() throws IOException {
+                    try (InputStream is = jar.getInputStream(list)) {
+                        return new String(is.readAllBytes(), StandardCharsets.UTF_8).lines().filter(line -> !line.isBlank()).toList();
+                    }
+                }
+
+                @Override
+                List<String> classNames() {
+                    return jar.stream().map(JarEntry::getName)
+                            .filter(name -> name.endsWith(".class") && !name.startsWith("META-INF/"))
+                            .map(name -> name.substring(0, name.length() - ".class".length()))
+                            .toList();
+                }
+
+                @Override
+                byte[] read(String name) throws IOException {
+                    try (InputStream is = jar.getInputStream(jar.getJarEntry(name))) {
+                        return is.readAllBytes();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    jar.close();
+                }
+            };
+        }
+
+        abstract List<String> list() throws IOException;
+
+        abstract List<String> classNames() throws IOException;
+
+        abstract byte[] read(String name) throws IOException;
+
+        @Override
+        public abstract void close() throws IOException;
+    }
+
+    private record LoaderState(RootPackageTransformer transformer, ConstantPoolRewriter rewriter) {}
+
+    private static final class Transformer implements ClassFileTransformer {
+        // Weak, so that the agent does not keep class loaders alive
+        private final Map<ClassLoader, Optional<LoaderState>> loaders = Collections.synchronizedMap(new WeakHashMap<>());
+        // Looking for lists may itself load classes through the same loader
+        private final ThreadLocal<Boolean> resolving = ThreadLocal.withInitial(() -> false);
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] bytes) {
+            if (loader == null || className == null || resolving.get()) {
+                return null;
+            }
+            var state = loaders.get(loader);
+            if (state == null) {
+                resolving.set(true);
+                try {
+                    state = Optional.ofNullable(resolve(loader));
+                } catch (IOException e) {
+                    state = Optional.empty();
+                } finally {
+                    resolving.set(false);
+                }
+                loaders.put(loader, state);
+            }
+            // Renaming a class as it is defined under its old name would fail; leave any such class be
+            if (state.isEmpty() || !state.get().transformer().apply(className).equals(className)) {
+                return null;
+            }
+            var rewritten = state.get().rewriter().rewrite(bytes);
+            return rewritten == null ? null : rewritten.bytes();
+        }
+
+        private static LoaderState resolve(ClassLoader loader) throws IOException {
+            List<String> classes = RootPackageClassLoader.readLists(loader.getResources(JarTransformer.LIST_ENTRY));
+            if (classes.isEmpty()) {
+                return null;
+            }
+            var transformer = new RootPackageTransformer(classes);
+            return new LoaderState(transformer, new ConstantPoolRewriter(transformer));
+        }
+    }
+}
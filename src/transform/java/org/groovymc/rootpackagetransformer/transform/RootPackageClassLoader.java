@@ -0,0 +1,185 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the classes of jars or directories built by the plugin as though they had already been transformed, so that
+ * their root package variant can be run without building it. The classes to move are read from the
+ * {@link JarTransformer#LIST_ENTRY list} that the plugin puts in each jar.
+ * <p>
+ * Classes found in this loader's own URLs are loaded by it before its parent is asked, as otherwise the parent could
+ * load the untransformed originals. Moved classes are only visible under their root package names.
+ */
+public class RootPackageClassLoader extends URLClassLoader {
+    private static final String CLASS_EXTENSION = ".class";
+    private static final byte[] MISSING = new byte[0];
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final RootPackageTransformer transformer;
+    // Root package names of moved classes, to the names they were moved from
+    private final Map<String, String> originalNames = new HashMap<>();
+    private final ConstantPoolRewriter rewriter;
+    private final Map<String, byte[]> transformed = new ConcurrentHashMap<>();
+
+    public RootPackageClassLoader(URL[] urls, ClassLoader parent) throws IOException {
+        super(urls, parent);
+        this.transformer = new RootPackageTransformer(readLists(findResources(JarTransformer.LIST_ENTRY)));
+        for (String name : transformer.getTargetClasses()) {
+            originalNames.put(transformer.apply(name), name);
+        }
+        this.rewriter = new ConstantPoolRewriter(transformer);
+    }
+
+    /**
+     * Reads and merges lists of classes to move.
+     */
+    static List<String> readLists(Enumeration<URL> lists) throws IOException {
+        Set<String> classes = new TreeSet<>();
+        for (URL list : Collections.list(lists)) {
+            try (var reader = new BufferedReader(new InputStreamReader(list.openStream(), StandardCharsets.UTF_8))) {
+                reader.lines().filter(line -> !line.isBlank()).forEach(classes::add);
+            }
+        }
+        return List.copyOf(classes);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null && !name.startsWith("java.")) {
+                byte[] bytes = transformedBytes(name.replace('.', '/'));
+                if (bytes != null) {
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                }
+            }
+            if (loaded == null) {
+                return super.loadClass(name, resolve);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = transformedBytes(name.replace('.', '/'));
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public URL findResource(String name) {
+        if (name.endsWith(CLASS_EXTENSION)) {
+            String className = name.substring(0, name.length() - CLASS_EXTENSION.length());
+            if (isMoved(className)) {
+                return null;
+            }
+            String original = originalName(className);
+            if (original != null) {
+                return super.findResource(original + CLASS_EXTENSION);
+            }
+        }
+        return super.findResource(name);
+    }
+
+    /**
+     * {@return whether a class is moved away from the given name} This includes the nested classes of marked classes.
+     */
+    private boolean isMoved(String internalName) {
+        return !transformer.apply(internalName).equals(internalName);
+    }
+
+    /**
+     * {@return the name a class was moved from, or {@code null} if no class is moved to the given name}
+     */
+    private String originalName(String internalName) {
+        // The name starts with the root package name of a marked class, which nested classes continue
+        for (int end = internalName.length(); end > 0; end--) {
+            String moved = originalNames.get(internalName.substring(0, end));
+            if (moved != null) {
+                String original = moved + internalName.substring(end);
+                if (transformer.apply(original).equals(internalName)) {
+                    return original;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serves the transformed bytes of this loader's own classes; other resources, including the URLs of classes, are
+     * left as they are.
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(CLASS_EXTENSION)) {
+            try {
+                byte[] bytes = transformedBytes(name.substring(0, name.length() - CLASS_EXTENSION.length()));
+                if (bytes != null) {
+                    return new ByteArrayInputStream(bytes);
+                }
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+
+    /**
+     * {@return the transformed bytes of a class in this loader's own URLs, or {@code null} if it has no such class}
+     */
+    private byte[] transformedBytes(String internalName) throws ClassNotFoundException {
+        byte[] bytes = transformed.get(internalName);
+        if (bytes == null) {
+            try {
+                bytes = transformed.computeIfAbsent(internalName, this::transform);
+            } catch (UncheckedIOException e) {
+                throw new ClassNotFoundException(internalName.replace('/', '.'), e.getCause());
+            }
+        }
+        return bytes == MISSING ? null : bytes;
+    }
+
+    private byte[] transform(String internalName) {
+        if (isMoved(internalName)) {
+            return MISSING;
+        }
+        String original = originalName(internalName);
+        URL resource = super.findResource((original == null ? internalName : original) + CLASS_EXTENSION);
+        if (resource == null) {
+            return MISSING;
+        }
+        byte[] bytes;
+        try (var is = resource.openStream()) {
+            bytes = is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var rewritten = rewriter.rewrite(bytes);
+        return rewritten == null ? bytes : rewritten.bytes();
+    }
+}
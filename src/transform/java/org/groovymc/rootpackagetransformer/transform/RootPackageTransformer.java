@@ -1,79 +1,222 @@
 package org.groovymc.rootpackagetransformer.transform;
 
-import org.groovymc.rootpackagetransformer.RootPackage;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 
 public final class RootPackageTransformer implements UnaryOperator<String> {
-    private static final String ROOT_PACKAGE_DESCRIPTOR = Type.getDescriptor(RootPackage.class);
+    // Spelled out rather than taken from the annotation class, which the agent does not have on its class path
+    private static final String ROOT_PACKAGE_DESCRIPTOR = "Lorg/groovymc/rootpackagetransformer/RootPackage;";
+    private static final byte[] ROOT_PACKAGE_DESCRIPTOR_BYTES = ModifiedUtf8.encode(ROOT_PACKAGE_DESCRIPTOR);
+    // "RPTM"; bump the format whenever the layout of compiled transformers changes
+    private static final int COMPILED_MAGIC = 0x5250544D;
+    private static final int COMPILED_FORMAT = 1;
+    // The matcher's buffer and those of the reader and writer around it, at two bytes a char
+    private static final long STREAMED_SOURCE_WEIGHT = (ReplacementMatcher.STREAM_BUFFER + 2L * 8192) * 2;
 
     public static RootPackageTransformer classesToMove(Collection<Path> paths) throws IOException {
-        Set<String> classes = new HashSet<>();
-        for (Path classFile : paths) {
-            if (!Files.isRegularFile(classFile) || !classFile.toString().endsWith(".class")) {
+        return classesToMove(paths, 1);
+    }
+
+    public static RootPackageTransformer classesToMove(Collection<Path> paths, int parallelism) throws IOException {
+        return classesToMove(paths, parallelism, TransformMetrics.NONE);
+    }
+
+    public static RootPackageTransformer classesToMove(Collection<Path> paths, int parallelism, TransformMetrics metrics) throws IOException {
+        Set<String> classes = ConcurrentHashMap.newKeySet();
+        ParallelTasks.forEach(paths, parallelism, classFile -> {
+            String name = relocatedName(classFile, metrics);
+            if (name != null) {
+                classes.add(name);
+            }
+        });
+        return new RootPackageTransformer(classes);
+    }
+
+    /**
+     * {@return the name of the class in the given file if it is marked to be moved to the root package, or {@code null}
+     * otherwise}
+     */
+    public static String relocatedName(Path classFile) throws IOException {
+        return relocatedName(classFile, TransformMetrics.NONE);
+    }
+
+    public static String relocatedName(Path classFile, TransformMetrics metrics) throws IOException {
+        if (!Files.isRegularFile(classFile) || !classFile.toString().endsWith(".class")) {
+            return null;
+        }
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(classFile);
+        long read = System.nanoTime();
+        String name = relocatedName(bytes);
+        metrics.addTime(TransformMetrics.Timer.IO, read - start);
+        metrics.addTime(TransformMetrics.Timer.SCAN, System.nanoTime() - read);
+        metrics.add(TransformMetrics.Counter.BYTES_READ, bytes.length);
+        metrics.add(TransformMetrics.Counter.CLASSES_SCANNED, 1);
+        if (name != null) {
+            metrics.add(TransformMetrics.Counter.CLASSES_RELOCATED, 1);
+        }
+        return name;
+    }
+
+    /**
+     * {@return the name of the given class if it is marked to be moved to the root package, or {@code null} otherwise}
+     */
+    public static String relocatedName(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        // Any class annotated with @RootPackage must carry its descriptor in the constant pool
+        if (!containsUtf8(reader, bytes, ROOT_PACKAGE_DESCRIPTOR_BYTES)) {
+            return null;
+        }
+        boolean[] relocate = new boolean[1];
+        ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                if (descriptor.equals(ROOT_PACKAGE_DESCRIPTOR)) {
+                    relocate[0] = true;
+                }
+                return null;
+            }
+        };
+        reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return relocate[0] ? reader.getClassName() : null;
+    }
+
+    private static boolean containsUtf8(ClassReader reader, byte[] bytes, byte[] value) {
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // The slot after a CONSTANT_Long_info or CONSTANT_Double_info has no entry
+            if (offset == 0 || bytes[offset - 1] != 1) {
                 continue;
             }
-            try (var is = Files.newInputStream(classFile)) {
-                ClassReader reader = new ClassReader(is);
-                String[] foundName = new String[1];
-                boolean[] relocate = new boolean[1];
-                ClassVisitor visitor = new ClassVisitor(Opcodes.ASM9) {
-                    @Override
-                    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                        foundName[0] = name;
-                        super.visit(version, access, name, signature, superName, interfaces);
-                    }
+            int length = (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+            if (length == value.length && Arrays.equals(bytes, offset + 2, offset + 2 + length, value, 0, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                    @Override
-                    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
-                        if (descriptor.equals(ROOT_PACKAGE_DESCRIPTOR)) {
-                            relocate[0] = true;
-                        }
-                        return super.visitAnnotation(descriptor, visible);
+    /**
+     * {@return the strings in the constant pool of the given class which could mention a class to move} These are the
+     * runs of characters in its Utf8 entries between any which cannot be part of a class name, such as those separating
+     * the parts of a descriptor, keeping only runs which hold a package separator. Whether rewriting the class with one
+     * list of classes to move gives a different result to rewriting it with another depends only on whether any of
+     * these contain a class in one list but not the other; see {@link #mentionsAny}.
+     */
+    public static Set<String> qualifiedNames(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        Set<String> names = new HashSet<>();
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // The slot after a CONSTANT_Long_info or CONSTANT_Double_info has no entry
+            if (offset == 0 || bytes[offset - 1] != 1) {
+                continue;
+            }
+            int end = offset + 2 + ((bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF));
+            int start = offset + 2;
+            boolean qualified = false;
+            for (int j = start; j <= end; j++) {
+                byte b = j == end ? (byte) ';' : bytes[j];
+                if (isNameBreak(b)) {
+                    if (qualified) {
+                        names.add(ModifiedUtf8.decode(bytes, start, j - start));
                     }
-                };
-                reader.accept(visitor, 0);
-                if (relocate[0]) {
-                    classes.add(foundName[0]);
+                    start = j + 1;
+                    qualified = false;
+                } else if (b == '/' || b == '.') {
+                    qualified = true;
                 }
             }
         }
-        return new RootPackageTransformer(classes);
+        return names;
     }
 
-    private final List<Replacement> rewrite;
+    /**
+     * {@return whether any of the given strings, as found by {@link #qualifiedNames}, mentions any of the given classes}
+     * Classes with a name that could not be found that way are taken to be mentioned by everything.
+     */
+    public static boolean mentionsAny(Collection<String> qualifiedNames, Collection<String> classes) {
+        for (String clazz : classes) {
+            for (int i = 0; i < clazz.length(); i++) {
+                char c = clazz.charAt(i);
+                if (c < 0x80 && isNameBreak((byte) c)) {
+                    return true;
+                }
+            }
+        }
+        for (String name : qualifiedNames) {
+            for (String clazz : classes) {
+                if (name.contains(clazz.replace('.', '/')) || name.contains(clazz.replace('/', '.'))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNameBreak(byte b) {
+        // Bytes of multibyte characters are negative, and always part of a name
+        return b >= 0 && (b <= ' ' || b == ';' || b == '[' || b == '(' || b == ')' || b == '<' || b == '>' || b == ':'
+                || b == ',' || b == '"' || b == '\'');
+    }
+
+    private final ReplacementMatcher matcher;
+    private final ReplacementMatcher encodedMatcher;
+    private final ReplacementCache encodedCache;
+    private final ClassPrefilter prefilter;
     private final List<String> classes;
     private final Set<String> classesSet;
 
     public RootPackageTransformer(Collection<String> classes) {
-        this.rewrite = new ArrayList<>();
-        var classesList = new ArrayList<String>();
+        this(classes, ReplacementCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param cacheCapacity how many constant pool strings to remember the rewritten form of, or {@code 0} to not cache
+     *                      them at all
+     */
+    public RootPackageTransformer(Collection<String> classes, int cacheCapacity) {
+        this(classes, replacements(classes), cacheCapacity);
+    }
+
+    private RootPackageTransformer(Collection<String> classes, List<Replacement> rewrite, int cacheCapacity) {
+        this(classes, ReplacementMatcher.forChars(rewrite), ReplacementMatcher.forModifiedUtf8(rewrite), cacheCapacity);
+    }
+
+    private RootPackageTransformer(Collection<String> classes, ReplacementMatcher matcher, ReplacementMatcher encodedMatcher, int cacheCapacity) {
+        this.matcher = matcher;
+        this.encodedMatcher = encodedMatcher;
+        this.encodedCache = new ReplacementCache(encodedMatcher, cacheCapacity);
+        var simpleNames = new HashSet<String>();
         for (String clazz : classes) {
-            String dotName = clazz.replace('/', '.');
-            String slashName = clazz.replace('.', '/');
-            String simpleName = slashName.substring(slashName.lastIndexOf('/') + 1);
-            rewrite.add(new Replacement(dotName, simpleName));
-            rewrite.add(new Replacement(slashName, simpleName));
-            classesList.add(clazz);
-        }
-        rewrite.sort(Comparator.comparing(replacement -> replacement.target().length()));
+            simpleNames.add(simpleName(clazz));
+        }
+        this.prefilter = new ClassPrefilter(simpleNames.stream().map(ModifiedUtf8::encode).toList());
+        var classesList = new ArrayList<>(classes);
         classesList.sort(Comparator.naturalOrder());
         this.classes = Collections.unmodifiableList(classesList);
         this.classesSet = Set.copyOf(classes);
@@ -83,29 +226,125 @@ public RootPackageTransformer(Path path) throws IOException {
         this(Files.readAllLines(path));
     }
 
+    private static List<Replacement> replacements(Collection<String> classes) {
+        var rewrite = new ArrayList<Replacement>();
+        for (String clazz : classes) {
+            String simpleName = simpleName(clazz);
+            rewrite.add(new Replacement(clazz.replace('/', '.'), simpleName));
+            rewrite.add(new Replacement(clazz.replace('.', '/'), simpleName));
+        }
+        return rewrite;
+    }
+
+    private static String simpleName(String clazz) {
+        String slashName = clazz.replace('.', '/');
+        return slashName.substring(slashName.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Reads a transformer written by {@link #writeCompiled(Path)}. The file is mapped rather than read, and its tables
+     * copied out in bulk, so this takes a fraction of the time compiling the list of classes again would.
+     * @throws IOException if the file cannot be read, or was written in another format
+     */
+    public static RootPackageTransformer readCompiled(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != COMPILED_MAGIC) {
+                throw new IOException("Not a compiled list of classes to move: "+path);
+            }
+            int format = buffer.getInt();
+            if (format != COMPILED_FORMAT) {
+                throw new IOException("Unsupported format "+format+" of compiled list "+path);
+            }
+            List<String> classes = new ArrayList<>();
+            for (int i = buffer.getInt(); i > 0; i--) {
+                classes.add(ReplacementMatcher.readUtf(buffer));
+            }
+            var matcher = ReplacementMatcher.read(buffer);
+            var encodedMatcher = ReplacementMatcher.read(buffer);
+            return new RootPackageTransformer(classes, matcher, encodedMatcher, ReplacementCache.DEFAULT_CAPACITY);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Truncated compiled list "+path, e);
+        }
+    }
+
+    /**
+     * Writes this transformer in a form {@link #readCompiled(Path)} can load without compiling the list of classes
+     * again: the list itself, then the tables of both matchers, all big-endian. The file is left alone if it already
+     * holds the same.
+     */
+    public void writeCompiled(Path path) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(COMPILED_MAGIC);
+            out.writeInt(COMPILED_FORMAT);
+            out.writeInt(classes.size());
+            for (String clazz : classes) {
+                out.writeUTF(clazz);
+            }
+            matcher.write(out);
+            encodedMatcher.write(out);
+        }
+        byte[] contents = bytes.toByteArray();
+        if (Files.isRegularFile(path) && Files.size(path) == contents.length && Arrays.equals(Files.readAllBytes(path), contents)) {
+            return;
+        }
+        Files.write(path, contents);
+    }
+
+    public List<String> getTargetClasses() {
+        return classes;
+    }
+
     public void writeTargetClasses(Path path) throws IOException {
         var sorted = new ArrayList<>(this.classes);
-        Files.write(path, sorted, StandardOpenOption.CREATE);
+        if (Files.isRegularFile(path) && Files.readAllLines(path).equals(sorted)) {
+            return;
+        }
+        Files.write(path, sorted);
     }
 
     @Override
     public String apply(String s) {
-        int l = s.length();
-        for (var entry : this.rewrite) {
-            if (entry.target().length() > l) {
-                break;
-            }
-            if (s.equals(entry.target())) {
-                return entry.replacement();
-            }
-            s = s.replace(entry.target(), entry.replacement());
-        }
-        return s;
+        return matcher.replace(s);
+    }
+
+    /**
+     * Applies this transformer to a modified UTF-8 string, as stored in a class file constant pool, without decoding
+     * it.
+     * @param lookups where to count whether the rewritten form was remembered
+     * @return the rewritten bytes, or {@code null} if the string is unchanged; the returned array may be shared, and
+     * must not be modified
+     */
+    byte[] applyModifiedUtf8(byte[] bytes, int offset, int length, ReplacementCache.Lookups lookups) {
+        return encodedCache.replace(bytes, offset, length, lookups);
+    }
+
+    /**
+     * {@return whether the given bytes, a class file or part of one, may mention any class to move} Bytes for which this
+     * is {@code false} are certain not to; the check is a quick scan for the simple names of those classes, so it may
+     * also answer {@code true} for bytes which do not.
+     */
+    boolean mayApplyTo(byte[] bytes, int offset, int length) {
+        return prefilter.mayMatch(bytes, offset, length);
     }
 
     public void applyToAllInDirectory(Path directory, Predicate<String> validExtension) throws IOException {
+        applyToAllInDirectory(directory, validExtension, 1);
+    }
+
+    public void applyToAllInDirectory(Path directory, Predicate<String> validExtension, int parallelism) throws IOException {
+        applyToAllInDirectory(directory, validExtension, parallelism, TransformPipeline.defaultMemoryBudget());
+    }
+
+    /**
+     * @param memoryBudget roughly how many bytes of files may be held in memory at once; see
+     *                     {@link TransformPipeline#TransformPipeline(int, long)}
+     */
+    public void applyToAllInDirectory(Path directory, Predicate<String> validExtension, int parallelism, long memoryBudget) throws IOException {
+        List<Path> paths;
         try (var stream = Files.walk(directory)) {
-            var paths = stream.filter(Files::isRegularFile).filter(p -> {
+            paths = stream.filter(Files::isRegularFile).filter(p -> {
                 var name = p.getFileName().toString();
                 var extension = name.lastIndexOf('.');
                 if (extension == -1) {
@@ -113,46 +352,125 @@ public void applyToAllInDirectory(Path directory, Predicate<String> validExtensi
                 }
                 return validExtension.test(name.substring(extension + 1));
             }).toList();
-            for (Path path : paths) {
-                applyTo(path, directory);
-            }
         }
+        new TransformPipeline(parallelism, memoryBudget).run(paths, path -> weight(relativePath(directory, path), path.toFile().length()),
+                path -> path,
+                path -> {
+                    applyTo(path, directory, relativePath(directory, path));
+                    return path;
+                },
+                path -> {});
+    }
+
+    /**
+     * {@return roughly how many bytes {@link #applyTo(Path, Path, String)} holds in memory for a source file of the
+     * given size} Files are streamed through fixed buffers, however large they are, so most are weighed by those alone;
+     * relocated classes are read whole, and held both as read and as rewritten, at up to two bytes a char.
+     */
+    public long weight(String relativePath, long size) {
+        String className = relativePath.substring(0, Math.max(relativePath.lastIndexOf('.'), 0));
+        return classesSet.contains(className) ? size * 4 : STREAMED_SOURCE_WEIGHT;
     }
 
-    private void applyTo(Path path, Path directory) throws IOException {
+    private static String relativePath(Path directory, Path path) {
         var relativePath = directory.relativize(path);
         String[] names = new String[relativePath.getNameCount()];
         for (int i = 0; i < names.length; i++) {
             names[i] = relativePath.getName(i).toString();
         }
-        String full = String.join("/", names);
-        String extension = full.substring(full.lastIndexOf('.') + 1);
-        String className = full.substring(0, full.length() - extension.length() - 1);
-        String contents = Files.readString(path);
-        String rewritten = apply(contents);
-        String newClassName = className;
+        return String.join("/", names);
+    }
+
+    /**
+     * Applies this transformer to a source file, writing the result to the matching location under the destination
+     * directory, which may be the directory the file is already in.
+     * @param relativePath the path of the file relative to its source root, separated by {@code /}
+     */
+    public void applyTo(Path source, Path destinationDirectory, String relativePath) throws IOException {
+        String extension = relativePath.substring(relativePath.lastIndexOf('.') + 1);
+        String className = relativePath.substring(0, relativePath.length() - extension.length() - 1);
         if (this.classesSet.contains(className)) {
-            newClassName = apply(className);
-            if (rewritten.trim().startsWith("package ")) {
-                int end = rewritten.indexOf(';');
-                String packageName = className.substring(0, className.lastIndexOf('/')).replace('/', '.');
-                if (end != -1) {
-                    String prefix = "import "+ packageName +".*;";
-                    rewritten = prefix+rewritten.substring(end + 1);
-                } else {
-                    int line = rewritten.indexOf('\n');
-                    if (line != -1) {
-                        String prefix = "import "+ packageName +".*"+(rewritten.contains("\r") ? "\r\n" : "\n");
-                        rewritten = prefix+rewritten.substring(line + 1);
-                    }
+            // The header rewrite needs to see the whole file; relocated classes are few, so these are read into memory
+            var change = moveToRootPackage(source, destinationDirectory, className, extension, Files.readString(source));
+            if (change != null) {
+                change.write();
+            }
+            return;
+        }
+        Path destination = destinationDirectory.resolve(relativePath);
+        if (!source.equals(destination)) {
+            Files.createDirectories(destination.getParent());
+            try (var reader = Files.newBufferedReader(source);
+                 var writer = Files.newBufferedWriter(destination)) {
+                matcher.replace(reader, writer);
+            }
+            return;
+        }
+        // Most files mention no relocated class; find that out without writing anything
+        try (var reader = Files.newBufferedReader(source)) {
+            if (!matcher.replace(reader, null)) {
+                return;
+            }
+        }
+        Path temporary = Files.createTempFile(source.getParent(), source.getFileName().toString(), ".tmp");
+        try {
+            try (var reader = Files.newBufferedReader(source);
+                 var writer = Files.newBufferedWriter(temporary)) {
+                matcher.replace(reader, writer);
+            }
+            Files.move(temporary, source, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private SourceChange moveToRootPackage(Path source, Path destinationDirectory, String className, String extension, String contents) {
+        String rewritten = apply(contents);
+        String newClassName = apply(className);
+        if (rewritten.trim().startsWith("package ")) {
+            int end = rewritten.indexOf(';');
+            String packageName = className.substring(0, className.lastIndexOf('/')).replace('/', '.');
+            if (end != -1) {
+                String prefix = "import "+ packageName +".*;";
+                rewritten = prefix+rewritten.substring(end + 1);
+            } else {
+                int line = rewritten.indexOf('\n');
+                if (line != -1) {
+                    String prefix = "import "+ packageName +".*"+(rewritten.contains("\r") ? "\r\n" : "\n");
+                    rewritten = prefix+rewritten.substring(line + 1);
                 }
             }
         }
-        if (!contents.equals(rewritten) || !className.equals(newClassName)) {
-            Files.delete(path);
-            Files.writeString(directory.resolve(newClassName+'.'+extension), rewritten, StandardOpenOption.CREATE);
+        Path destination = destinationDirectory.resolve(newClassName+'.'+extension);
+        if (source.equals(destination) && contents.equals(rewritten)) {
+            return null;
+        }
+        return new SourceChange(source, destination, rewritten, source.startsWith(destinationDirectory));
+    }
+
+    /**
+     * A transformed source file, waiting to be written.
+     * @param deleteSource whether the original file is to be removed, as it was moved within the directory being written
+     */
+    private record SourceChange(Path source, Path destination, String contents, boolean deleteSource) {
+        void write() throws IOException {
+            if (deleteSource) {
+                Files.deleteIfExists(source);
+            }
+            Files.createDirectories(destination.getParent());
+            if (!Files.exists(destination)) {
+                Files.writeString(destination, contents);
+                return;
+            }
+            Path temporary = Files.createTempFile(destination.getParent(), destination.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(temporary, contents);
+                Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
         }
     }
 
-    private record Replacement(String target, String replacement) {}
+    record Replacement(String target, String replacement) {}
 }
@@ -0,0 +1,148 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers filled in by {@link RootPackageTransformer} and {@link ConstantPoolRewriter} as they work. Safe
+ * to share between threads; timers add up the time spent on every thread, so may exceed the wall clock time of a
+ * parallel run.
+ */
+public final class TransformMetrics {
+    /**
+     * Metrics which record nothing, for callers which do not want any.
+     */
+    public static final TransformMetrics NONE = new TransformMetrics(false);
+
+    public enum Counter {
+        CLASSES_SCANNED("classesScanned"),
+        CLASSES_RELOCATED("classesRelocated"),
+        CLASSES_PROCESSED("classesProcessed"),
+        CLASSES_REWRITTEN("classesRewritten"),
+        CONSTANTS_REWRITTEN("constantsRewritten"),
+        CONSTANTS_REMOVED("constantsRemoved"),
+        BYTES_READ("bytesRead"),
+        BYTES_WRITTEN("bytesWritten"),
+        CACHE_HITS("cacheHits"),
+        CACHE_MISSES("cacheMisses"),
+        CLASS_CACHE_HITS("classCacheHits"),
+        CLASS_CACHE_MISSES("classCacheMisses"),
+        CLASSES_PASSED_THROUGH("classesPassedThrough");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    public enum Timer {
+        /** Looking for {@code @RootPackage} annotations. */
+        SCAN("scan"),
+        /** Finding and rewriting constants which mention relocated classes. */
+        MATCH("match"),
+        /** Rebuilding the constant pools of rewritten classes. */
+        COMPACT("compact"),
+        /** Reading and writing files. */
+        IO("io");
+
+        private final String key;
+
+        Timer(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    private final LongAdder[] counters;
+    private final LongAdder[] timers;
+
+    public TransformMetrics() {
+        this(true);
+    }
+
+    private TransformMetrics(boolean enabled) {
+        if (enabled) {
+            this.counters = adders(Counter.values().length);
+            this.timers = adders(Timer.values().length);
+        } else {
+            this.counters = null;
+            this.timers = null;
+        }
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public void add(Counter counter, long amount) {
+        if (counters != null) {
+            counters[counter.ordinal()].add(amount);
+        }
+    }
+
+    public void addTime(Timer timer, long nanos) {
+        if (timers != null) {
+            timers[timer.ordinal()].add(nanos);
+        }
+    }
+
+    public long get(Counter counter) {
+        return counters == null ? 0 : counters[counter.ordinal()].sum();
+    }
+
+    public long getNanos(Timer timer) {
+        return timers == null ? 0 : timers[timer.ordinal()].sum();
+    }
+
+    /**
+     * {@return every counter, by key, in declaration order}
+     */
+    public Map<String, Long> counters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            values.put(counter.key(), get(counter));
+        }
+        return values;
+    }
+
+    /**
+     * {@return every timer in milliseconds, by key, in declaration order}
+     */
+    public Map<String, Long> timersMillis() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            values.put(timer.key(), TimeUnit.NANOSECONDS.toMillis(getNanos(timer)));
+        }
+        return values;
+    }
+
+    /**
+     * {@return a one line summary of every non-zero counter and every timer}
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (var entry : counters().entrySet()) {
+            if (entry.getValue() != 0) {
+                builder.append(entry.getKey()).append('=').append(entry.getValue()).append(' ');
+            }
+        }
+        for (var entry : timersMillis().entrySet()) {
+            builder.append(entry.getKey()).append('=').append(entry.getValue()).append("ms ");
+        }
+        return builder.toString().trim();
+    }
+}
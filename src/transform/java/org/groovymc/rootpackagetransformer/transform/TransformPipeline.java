@@ -0,0 +1,398 @@
+package org.groovymc.rootpackagetransformer.transform;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs per-file work as three overlapping stages: reading each input, transforming it, and writing the result. Reads
+ * and writes are done by their own threads, so that slow storage does not hold up the threads transforming, which are
+ * as many as the parallelism allows.
+ * <p>
+ * Stages are joined by bounded queues, and every item holds a share of a memory budget, by the weight it is given, from
+ * before it is read until it is written. Items are let in in order, and reading stops while the budget is spent, so
+ * however many inputs there are, only about a budget's worth of them is in memory at once. Reads and writes run on
+ * virtual threads where the JDK has them.
+ */
+public final class TransformPipeline {
+    private static final ThreadFactory IO_THREADS = ioThreadFactory();
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    // Weights are counted in kibibytes, so that budgets beyond 2 GiB still fit a semaphore
+    private static final int PERMIT_SHIFT = 10;
+
+    private final int parallelism;
+    private final long memoryBudget;
+
+    @FunctionalInterface
+    public interface Stage<I, O> {
+        O apply(I input) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Sink<I> {
+        void accept(I input) throws IOException;
+    }
+
+    /**
+     * Transforms many inputs in one call, so that whatever it sets up is shared by all of them. Each thread transforming
+     * makes one call, for every input it takes. The result of each input must be passed on before the next is taken.
+     */
+    @FunctionalInterface
+    public interface BatchStage<I, O> {
+        void apply(Iterable<I> inputs, Sink<O> results) throws IOException;
+    }
+
+    public TransformPipeline(int parallelism) {
+        this(parallelism, defaultMemoryBudget());
+    }
+
+    /**
+     * @param parallelism  how many items may be transformed at once; with one or fewer, each item is read, transformed
+     *                     and written in turn on the calling thread
+     * @param memoryBudget roughly how many bytes the items in flight may take up, as counted by their weights
+     */
+    public TransformPipeline(int parallelism, long memoryBudget) {
+        this.parallelism = parallelism;
+        this.memoryBudget = memoryBudget;
+    }
+
+    public static long defaultMemoryBudget() {
+        return Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Runs every item through the stages, writing results in whatever order they are ready.
+     * @param weight how many bytes an item is expected to take up in memory while it is in flight
+     */
+    public <T, R, W> void run(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, Stage<? super R, ? extends W> transform, Sink<? super W> write) throws IOException {
+        run(items, weight, read, batch(transform), write, false);
+    }
+
+    /**
+     * Runs every item through the stages, as {@link #run(Collection, ToLongFunction, Stage, Stage, Sink)} does, with
+     * each thread transforming its share of the items in one batch.
+     */
+    public <T, R, W> void run(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, BatchStage<R, W> transform, Sink<? super W> write) throws IOException {
+        run(items, weight, read, transform, write, false);
+    }
+
+    /**
+     * Runs every item through the stages, writing results one at a time, in the order of the items.
+     * @param weight how many bytes an item is expected to take up in memory while it is in flight
+     */
+    public <T, R, W> void runOrdered(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, Stage<? super R, ? extends W> transform, Sink<? super W> write) throws IOException {
+        run(items, weight, read, batch(transform), write, true);
+    }
+
+    /**
+     * Runs every item through the stages, as {@link #runOrdered(Collection, ToLongFunction, Stage, Stage, Sink)} does,
+     * with each thread transforming its share of the items in one batch.
+     */
+    public <T, R, W> void runOrdered(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, BatchStage<R, W> transform, Sink<? super W> write) throws IOException {
+        run(items, weight, read, transform, write, true);
+    }
+
+    private static <R, W> BatchStage<R, W> batch(Stage<? super R, ? extends W> transform) {
+        return (inputs, results) -> {
+            for (R input : inputs) {
+                results.accept(transform.apply(input));
+            }
+        };
+    }
+
+    private <T, R, W> void run(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, BatchStage<R, W> transform, Sink<? super W> write, boolean ordered) throws IOException {
+        if (parallelism <= 1 || items.size() <= 1) {
+            Iterator<T> iterator = items.iterator();
+            Iterable<R> inputs = () -> new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public R next() {
+                    try {
+                        return read.apply(iterator.next());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            try {
+                transform.apply(inputs, write::accept);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
+        }
+        new Run<>(items, weight, read, transform, write, ordered).execute();
+    }
+
+    private static ThreadFactory ioThreadFactory() {
+        try {
+            // Thread.ofVirtual() is only available from Java 21, while this is built for 17
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Thread newThread(String stage, Runnable runnable, boolean io) {
+        if (io && IO_THREADS != null) {
+            return IO_THREADS.newThread(runnable);
+        }
+        Thread thread = new Thread(runnable, "rootpackagetransformer-" + stage + "-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException cause) {
+        var e = new InterruptedIOException("Interrupted while transforming");
+        e.initCause(cause);
+        return e;
+    }
+
+    private record Slot(int index, Object value, int permits) {}
+
+    private static final Slot END = new Slot(-1, null, 0);
+
+    private final class Run<T, R, W> {
+        private final Iterator<T> items;
+        private final ToLongFunction<? super T> weight;
+        private final Stage<? super T, ? extends R> read;
+        private final BatchStage<R, W> transform;
+        private final Sink<? super W> write;
+        private final boolean ordered;
+
+        private final int totalPermits;
+        private final Semaphore budget;
+        private final Lock admission = new ReentrantLock();
+        private final BlockingQueue<Slot> toTransform;
+        private final BlockingQueue<Slot> toWrite;
+        private final int readers;
+        private final int transformers;
+        private final int writers;
+        private final AtomicInteger readersLeft;
+        private final AtomicInteger transformersLeft;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private int nextIndex;
+
+        private Run(Collection<T> items, ToLongFunction<? super T> weight, Stage<? super T, ? extends R> read, BatchStage<R, W> transform, Sink<? super W> write, boolean ordered) {
+            this.items = items.iterator();
+            this.weight = weight;
+            this.read = read;
+            this.transform = transform;
+            this.write = write;
+            this.ordered = ordered;
+            this.totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget >> PERMIT_SHIFT));
+            this.budget = new Semaphore(totalPermits);
+            this.toTransform = new ArrayBlockingQueue<>(parallelism * 2);
+            this.toWrite = new ArrayBlockingQueue<>(parallelism * 2);
+            this.readers = parallelism * 2;
+            this.transformers = parallelism;
+            this.writers = ordered ? 1 : parallelism * 2;
+            this.readersLeft = new AtomicInteger(readers);
+            this.transformersLeft = new AtomicInteger(transformers);
+        }
+
+        private void execute() throws IOException {
+            for (int i = 0; i < readers; i++) {
+                threads.add(newThread("read", () -> work(this::read), true));
+            }
+            for (int i = 0; i < transformers; i++) {
+                threads.add(newThread("transform", () -> work(this::transform), false));
+            }
+            for (int i = 0; i < writers; i++) {
+                threads.add(newThread("write", () -> work(this::write), true));
+            }
+            threads.forEach(Thread::start);
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                threads.forEach(Thread::interrupt);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while transforming", e);
+            }
+            Throwable cause = failure.get();
+            if (cause instanceof IOException io) {
+                throw io;
+            } else if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            } else if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            } else if (cause instanceof Error error) {
+                throw error;
+            } else if (cause != null) {
+                throw new IOException(cause);
+            }
+        }
+
+        @FunctionalInterface
+        private interface Work {
+            void run() throws Exception;
+        }
+
+        private void work(Work work) {
+            try {
+                work.run();
+            } catch (Throwable t) {
+                if (failure.compareAndSet(null, t)) {
+                    // Stops every other stage, wherever it is waiting
+                    for (Thread thread : threads) {
+                        if (thread != Thread.currentThread()) {
+                            thread.interrupt();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Takes the next item, once the budget has room for it. Items are let in one at a time, in order, so an item
+         * never waits on the budget held by items after it.
+         */
+        private Slot next() throws InterruptedException {
+            // Not synchronized, as a virtual thread waiting on a monitor holds on to its carrier thread
+            admission.lockInterruptibly();
+            try {
+                if (!items.hasNext()) {
+                    return null;
+                }
+                T item = items.next();
+                long bytes = Math.max(0, weight.applyAsLong(item));
+                int permits = (int) Math.min(totalPermits, Math.max(1, (bytes + (1 << PERMIT_SHIFT) - 1) >> PERMIT_SHIFT));
+                budget.acquire(permits);
+                return new Slot(nextIndex++, item, permits);
+            } finally {
+                admission.unlock();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void read() throws IOException, InterruptedException {
+            Slot slot;
+            while ((slot = next()) != null) {
+                toTransform.put(new Slot(slot.index(), read.apply((T) slot.value()), slot.permits()));
+            }
+            if (readersLeft.decrementAndGet() == 0) {
+                for (int i = 0; i < transformers; i++) {
+                    toTransform.put(END);
+                }
+            }
+        }
+
+        private void transform() throws IOException, InterruptedException {
+            var inputs = new Inputs();
+            transform.apply(inputs, inputs::complete);
+            if (inputs.hasNext() || inputs.current != null) {
+                throw new IllegalStateException("Transformation stopped before every input was transformed");
+            }
+            if (transformersLeft.decrementAndGet() == 0) {
+                for (int i = 0; i < writers; i++) {
+                    toWrite.put(END);
+                }
+            }
+        }
+
+        /**
+         * The inputs taken by one thread transforming, each of which holds its place in the order and its share of the
+         * budget until its result is passed on.
+         */
+        private final class Inputs implements Iterable<R>, Iterator<R> {
+            private Slot next;
+            private Slot current;
+
+            @Override
+            public Iterator<R> iterator() {
+                return this;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = toTransform.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new UncheckedIOException(interrupted(e));
+                    }
+                }
+                return next != END;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public R next() {
+                if (current != null) {
+                    throw new IllegalStateException("The result of each input must be passed on before the next is taken");
+                }
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = null;
+                return (R) current.value();
+            }
+
+            void complete(Object result) throws IOException {
+                if (current == null) {
+                    throw new IllegalStateException("Passed on more results than inputs were taken");
+                }
+                try {
+                    toWrite.put(new Slot(current.index(), result, current.permits()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw interrupted(e);
+                }
+                current = null;
+            }
+        }
+
+        private void write() throws IOException, InterruptedException {
+            // Results which are ready before those of earlier items wait here; the budget bounds how many there are
+            Map<Integer, Slot> pending = new HashMap<>();
+            int next = 0;
+            Slot slot;
+            while ((slot = toWrite.take()) != END) {
+                if (!ordered) {
+                    write(slot);
+                    continue;
+                }
+                pending.put(slot.index(), slot);
+                while ((slot = pending.remove(next)) != null) {
+                    write(slot);
+                    next++;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void write(Slot slot) throws IOException {
+            try {
+                write.accept((W) slot.value());
+            } finally {
+                budget.release(slot.permits());
+            }
+        }
+    }
+}